@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2021  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  This file is part of Project EHRbase
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.ehrbase.building.webtemplateskeletnbuilder;
+
+import com.nedap.archie.rm.archetyped.Locatable;
+import com.nedap.archie.rm.composition.Composition;
+import com.nedap.archie.rm.composition.Entry;
+import com.nedap.archie.rm.datatypes.CodePhrase;
+import com.nedap.archie.rm.datavalues.DvText;
+import com.nedap.archie.rm.datavalues.quantity.DvInterval;
+import com.nedap.archie.rm.generic.PartyProxy;
+import com.nedap.archie.rm.generic.PartyRelated;
+import com.nedap.archie.rm.support.identification.TerminologyId;
+import org.ehrbase.util.exception.SdkException;
+import org.ehrbase.webtemplate.model.WebTemplateInput;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+
+import java.util.function.Supplier;
+
+/**
+ * The template static part of the skeleton of a {@link WebTemplateNode}: the constructor of its RM class, its name
+ * and archetype node id and the defaults of its children, resolved once.
+ */
+class NodeSkeleton {
+
+    private final String rmType;
+    // resolved on first use, since not every node of a template is instantiated
+    private volatile Supplier<Object> constructor;
+    private final String name;
+    private final String nodeId;
+    private final NodeSkeleton subject;
+    private final WebTemplateInput category;
+    private final WebTemplateInput relationship;
+
+    NodeSkeleton(WebTemplateNode node) {
+        this.rmType = node.getRmType();
+        this.name = node.getName();
+        this.nodeId = node.getNodeId();
+        this.subject = node.findChildById("subject").map(NodeSkeleton::new).orElse(null);
+        this.category = node.findChildById("category").flatMap(WebTemplateSkeletonBuilder::findDefaultCode).orElse(null);
+        this.relationship = node.findChildById("relationship").flatMap(WebTemplateSkeletonBuilder::findDefaultCode).orElse(null);
+    }
+
+    /**
+     * @return a new instance of the RM class of the node without any attributes set
+     */
+    Object instantiate() {
+        Supplier<Object> c = constructor;
+        if (c == null) {
+            c = WebTemplateSkeletonBuilder.findConstructor(rmType);
+            constructor = c;
+        }
+        return c.get();
+    }
+
+    /**
+     * Sets the attributes of {@code skeleton} which are fixed by the template.
+     */
+    void initialise(Object skeleton) {
+
+        if (skeleton instanceof Locatable) {
+            ((Locatable) skeleton).setName(new DvText(name));
+            ((Locatable) skeleton).setArchetypeNodeId(nodeId);
+        }
+
+        if (skeleton instanceof Entry) {
+            ((Entry) skeleton).setEncoding(new CodePhrase(new TerminologyId("IANA_character-sets"), "UTF-8"));
+            if (subject != null) {
+                ((Entry) skeleton).setSubject(subject.create(PartyProxy.class));
+            }
+        }
+
+        if (skeleton instanceof Composition && category != null) {
+            ((Composition) skeleton).setCategory(WebTemplateSkeletonBuilder.toDvCodedText(category));
+        }
+
+        if (skeleton instanceof DvInterval) {
+            ((DvInterval<?>) skeleton).setLowerIncluded(true);
+            ((DvInterval<?>) skeleton).setUpperIncluded(true);
+        }
+
+        if (skeleton instanceof PartyRelated && relationship != null) {
+            ((PartyRelated) skeleton).setRelationship(WebTemplateSkeletonBuilder.toDvCodedText(relationship));
+        }
+    }
+
+    /**
+     * @return a new initialised skeleton of the node
+     */
+    @SuppressWarnings("unchecked")
+    <T> T create(Class<T> clazz) {
+        Object skeleton = instantiate();
+        initialise(skeleton);
+        if (skeleton == null || clazz.isAssignableFrom(skeleton.getClass())) {
+            return (T) skeleton;
+        } else {
+            throw new SdkException(String.format("%s not assignable from %s", skeleton.getClass(), clazz));
+        }
+    }
+}
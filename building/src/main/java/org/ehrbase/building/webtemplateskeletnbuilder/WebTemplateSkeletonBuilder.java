@@ -21,17 +21,11 @@ import com.nedap.archie.aom.CComplexObject;
 import com.nedap.archie.creation.RMObjectCreator;
 import com.nedap.archie.rm.RMObject;
 import com.nedap.archie.rm.archetyped.Archetyped;
-import com.nedap.archie.rm.archetyped.Locatable;
 import com.nedap.archie.rm.archetyped.TemplateId;
 import com.nedap.archie.rm.composition.Composition;
-import com.nedap.archie.rm.composition.Entry;
 import com.nedap.archie.rm.datatypes.CodePhrase;
 import com.nedap.archie.rm.datavalues.DvCodedText;
-import com.nedap.archie.rm.datavalues.DvText;
-import com.nedap.archie.rm.datavalues.quantity.DvInterval;
 import com.nedap.archie.rm.generic.PartyIdentified;
-import com.nedap.archie.rm.generic.PartyProxy;
-import com.nedap.archie.rm.generic.PartyRelated;
 import com.nedap.archie.rm.support.identification.ArchetypeID;
 import com.nedap.archie.rm.support.identification.HierObjectId;
 import com.nedap.archie.rm.support.identification.TerminologyId;
@@ -39,13 +33,18 @@ import com.nedap.archie.rminfo.ArchieRMInfoLookup;
 import org.ehrbase.util.exception.SdkException;
 import org.ehrbase.webtemplate.model.WebTemplate;
 import org.ehrbase.webtemplate.model.WebTemplateInput;
-import org.ehrbase.webtemplate.model.WebTemplateInputValue;
 import org.ehrbase.webtemplate.model.WebTemplateNode;
 import org.ehrbase.webtemplate.parser.FlatPath;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import static org.ehrbase.util.rmconstants.RmConstants.RM_VERSION_1_4_0;
 
@@ -56,6 +55,8 @@ public class WebTemplateSkeletonBuilder {
     private static final RMObjectCreator RM_OBJECT_CREATOR =
             new RMObjectCreator(ARCHIE_RM_INFO_LOOKUP);
 
+    private static final Map<String, Supplier<Object>> CONSTRUCTOR_MAP = new ConcurrentHashMap<>();
+
 private WebTemplateSkeletonBuilder(){
     //NOP
 }
@@ -64,6 +65,12 @@ private WebTemplateSkeletonBuilder(){
 
         Composition composition = build(template.getTree(), withChildren, Composition.class);
 
+        addArchetypeDetails(composition, template);
+
+        return composition;
+    }
+
+    static void addArchetypeDetails(Composition composition, WebTemplate template) {
         composition.setArchetypeDetails(new Archetyped());
         composition.getArchetypeDetails().setTemplateId(new TemplateId());
         composition.getArchetypeDetails().getTemplateId().setValue(template.getTemplateId());
@@ -71,38 +78,14 @@ private WebTemplateSkeletonBuilder(){
         composition
         .getArchetypeDetails()
         .setArchetypeId(new ArchetypeID(composition.getArchetypeNodeId()));
-
-        return composition;
     }
 
 
     @SuppressWarnings("unchecked")
     public  static <T>  T build(WebTemplateNode node, boolean withChildren, Class<T>  clazz){
 
-        String rmclass = node.getRmType();
-
-        CComplexObject elementConstraint = new CComplexObject();
-        elementConstraint.setRmTypeName(rmclass);
-        Object skeleton;
-
-        switch (rmclass) {
-            case "UID_BASED_ID":
-                skeleton = new HierObjectId();
-                break;
-            case "PARTY_PROXY":
-                skeleton = new PartyIdentified();
-                break;
-            case "STRING":
-            case "LONG":
-                skeleton = null;
-                break;
-            case "BOOLEAN":
-                skeleton = false;
-                break;
-            default:
-                skeleton = RM_OBJECT_CREATOR.create(elementConstraint);
-                break;
-        }
+        NodeSkeleton nodeSkeleton = new NodeSkeleton(node);
+        Object skeleton = nodeSkeleton.instantiate();
 
         if (withChildren){
             node.getChildren().stream()
@@ -114,28 +97,7 @@ private WebTemplateSkeletonBuilder(){
                     });
         }
 
-        if (skeleton instanceof Locatable){
-            ((Locatable) skeleton).setName(new DvText(node.getName()));
-            ((Locatable) skeleton).setArchetypeNodeId(node.getNodeId());
-        }
-
-        if (skeleton instanceof Entry) {
-            ((Entry) skeleton).setEncoding(new CodePhrase(new TerminologyId("IANA_character-sets"), "UTF-8"));
-            node.findChildById("subject").map( n -> build(n,false, PartyProxy.class)).ifPresent(((Entry) skeleton)::setSubject);
-        }
-
-        if (skeleton instanceof Composition){
-            node.findChildById("category").flatMap(n -> extractDefault(n, DvCodedText.class)).ifPresent(((Composition)skeleton)::setCategory);
-        }
-
-        if(skeleton instanceof DvInterval){
-            ((DvInterval<?>) skeleton).setLowerIncluded(true);
-            ((DvInterval<?>) skeleton).setUpperIncluded(true);
-        }
-
-        if(skeleton instanceof PartyRelated){
-            node.findChildById("relationship").flatMap(n -> extractDefault(n, DvCodedText.class)).ifPresent(((PartyRelated)skeleton)::setRelationship);
-        }
+        nodeSkeleton.initialise(skeleton);
 
         if (skeleton == null || clazz.isAssignableFrom(skeleton.getClass())) {
           return (T) skeleton;
@@ -144,42 +106,83 @@ private WebTemplateSkeletonBuilder(){
         }
     }
 
+    /**
+     * Returns a constructor for the RM type {@code rmclass}. It is resolved once per type, the RM objects are then
+     * created by a constructor handle instead of going through {@link RMObjectCreator} each time.
+     */
+    static Supplier<Object> findConstructor(String rmclass) {
+        return CONSTRUCTOR_MAP.computeIfAbsent(rmclass, WebTemplateSkeletonBuilder::resolveConstructor);
+    }
+
+    private static Supplier<Object> resolveConstructor(String rmclass) {
+        switch (rmclass) {
+            case "UID_BASED_ID":
+                return HierObjectId::new;
+            case "PARTY_PROXY":
+                return PartyIdentified::new;
+            case "STRING":
+            case "LONG":
+                return () -> null;
+            case "BOOLEAN":
+                return () -> false;
+            default:
+                CComplexObject elementConstraint = new CComplexObject();
+                elementConstraint.setRmTypeName(rmclass);
+                Object prototype = RM_OBJECT_CREATOR.create(elementConstraint);
+                MethodHandle constructor;
+                try {
+                    constructor = MethodHandles.publicLookup()
+                            .findConstructor(prototype.getClass(), MethodType.methodType(void.class));
+                } catch (NoSuchMethodException | IllegalAccessException e) {
+                    throw new SdkException(e.getMessage(), e);
+                }
+                return () -> {
+                    try {
+                        return constructor.invoke();
+                    } catch (Throwable e) {
+                        throw new SdkException(e.getMessage(), e);
+                    }
+                };
+        }
+    }
+
     public static void insert(WebTemplateNode parentNode, RMObject parentObject, WebTemplateNode childNode, Object childObject){
 
-        String attributeName = FlatPath.removeStart(new FlatPath(childNode.getAqlPath(true)), new FlatPath(parentNode.getAqlPath(true))).getLast().getName();
+        insert(parentObject, findAttributeName(parentNode, childNode), childObject);
+    }
 
+    static String findAttributeName(WebTemplateNode parentNode, WebTemplateNode childNode) {
+        return FlatPath.removeStart(new FlatPath(childNode.getAqlPath(true)), new FlatPath(parentNode.getAqlPath(true))).getLast().getName();
+    }
+
+    static void insert(RMObject parentObject, String attributeName, Object childObject) {
         RM_OBJECT_CREATOR.addElementToListOrSetSingleValues(
                 parentObject, attributeName, Collections.singletonList(childObject));
     }
 
     public static <T> Optional<T> extractDefault(WebTemplateNode node, Class<T> clazz){
 
-        String rmclass = node.getRmType();
-
-        Object defaultValue = null;
-
-        switch (rmclass){
-            case "DV_CODED_TEXT":
-            if (node.getMin() >0){
-                Optional<WebTemplateInput> code = node.getInputs().stream()
-                        .filter(i -> i.getSuffix().equals("code"))
-                        .filter(i -> i.getList().size() == 1)
-                        .findAny();
-
-          if (code.isPresent()) {
-            defaultValue =
-                new DvCodedText(
-                    code.get().getList().get(0).getLabel(),
-                    new CodePhrase(
-                        new TerminologyId(code.get().getTerminology()),
-                        code.get().getList().get(0).getValue()));
-          }
-            }
-                break;
-            default:
-                defaultValue = null;
+        return Optional.ofNullable((T) findDefaultCode(node).map(WebTemplateSkeletonBuilder::toDvCodedText).orElse(null));
+    }
+
+    /**
+     * @return the only code of a mandatory DV_CODED_TEXT
+     */
+    static Optional<WebTemplateInput> findDefaultCode(WebTemplateNode node) {
+        if (node.getRmType().equals("DV_CODED_TEXT") && node.getMin() > 0) {
+            return node.getInputs().stream()
+                    .filter(i -> i.getSuffix().equals("code"))
+                    .filter(i -> i.getList().size() == 1)
+                    .findAny();
         }
+        return Optional.empty();
+    }
 
-        return Optional.ofNullable((T)defaultValue);
+    static DvCodedText toDvCodedText(WebTemplateInput code) {
+        return new DvCodedText(
+                code.getList().get(0).getLabel(),
+                new CodePhrase(
+                        new TerminologyId(code.getTerminology()),
+                        code.getList().get(0).getValue()));
     }
 }
@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) 2021  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  This file is part of Project EHRbase
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.ehrbase.building.webtemplateskeletnbuilder;
+
+import com.nedap.archie.rm.RMObject;
+import com.nedap.archie.rm.composition.Composition;
+import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Creates the same skeletons as {@link WebTemplateSkeletonBuilder} without children, but resolves the RM constructor,
+ * the static attributes and the attribute name in the parent of every node of the template only once.
+ * <p>
+ * For a frozen {@link WebTemplate} the factory is shared through {@link #of(WebTemplate)} and can be used
+ * concurrently. Nodes which are not part of the tree, e.g. the event copies of the walkers, are resolved on every
+ * call.
+ */
+public class WebTemplateSkeletonFactory {
+
+    private final WebTemplate webTemplate;
+    private final boolean shared;
+    private final Map<WebTemplateNode, NodeSkeleton> nodeSkeletons = new IdentityHashMap<>();
+    private final Map<WebTemplateNode, String> attributeNames = new IdentityHashMap<>();
+    private final Map<WebTemplateNode, WebTemplateNode> parents = new IdentityHashMap<>();
+
+    private WebTemplateSkeletonFactory(WebTemplate webTemplate) {
+        this.webTemplate = webTemplate;
+        this.shared = webTemplate.isFrozen();
+        if (shared) {
+            index(webTemplate.getTree());
+        }
+    }
+
+    /**
+     * @param webTemplate the template
+     * @return the factory of {@code webTemplate}. For a frozen template it is created once.
+     */
+    public static WebTemplateSkeletonFactory of(WebTemplate webTemplate) {
+        if (webTemplate.isFrozen()) {
+            return webTemplate.computeDerivedIfAbsent(WebTemplateSkeletonFactory.class, WebTemplateSkeletonFactory::new);
+        }
+        return new WebTemplateSkeletonFactory(webTemplate);
+    }
+
+    private void index(WebTemplateNode node) {
+        nodeSkeletons.put(node, new NodeSkeleton(node));
+        for (WebTemplateNode child : node.getChildren()) {
+            parents.put(child, node);
+            try {
+                attributeNames.put(child, WebTemplateSkeletonBuilder.findAttributeName(node, child));
+            } catch (RuntimeException e) {
+                // resolved and reported again if the child is inserted
+            }
+            index(child);
+        }
+    }
+
+    /**
+     * @return the same as {@link WebTemplateSkeletonBuilder#build(WebTemplate, boolean)} without children
+     */
+    public Composition build() {
+        Composition composition = build(webTemplate.getTree(), Composition.class);
+        WebTemplateSkeletonBuilder.addArchetypeDetails(composition, webTemplate);
+        return composition;
+    }
+
+    /**
+     * @return the same as {@link WebTemplateSkeletonBuilder#build(WebTemplateNode, boolean, Class)} without children
+     */
+    public <T> T build(WebTemplateNode node, Class<T> clazz) {
+        return getNodeSkeleton(node).create(clazz);
+    }
+
+    /**
+     * The same as {@link WebTemplateSkeletonBuilder#insert(WebTemplateNode, RMObject, WebTemplateNode, Object)}
+     */
+    public void insert(WebTemplateNode parentNode, RMObject parentObject, WebTemplateNode childNode, Object childObject) {
+        String attributeName = parents.get(childNode) == parentNode ? attributeNames.get(childNode) : null;
+        if (attributeName == null) {
+            attributeName = WebTemplateSkeletonBuilder.findAttributeName(parentNode, childNode);
+        }
+        WebTemplateSkeletonBuilder.insert(parentObject, attributeName, childObject);
+    }
+
+    /**
+     * @return {@code true} if the skeleton of {@code node} is resolved once by this factory
+     */
+    public boolean contains(WebTemplateNode node) {
+        return nodeSkeletons.containsKey(node);
+    }
+
+    private NodeSkeleton getNodeSkeleton(WebTemplateNode node) {
+        NodeSkeleton nodeSkeleton = nodeSkeletons.get(node);
+        if (nodeSkeleton == null) {
+            nodeSkeleton = new NodeSkeleton(node);
+            // a shared factory is read only
+            if (!shared) {
+                nodeSkeletons.put(node, nodeSkeleton);
+            }
+        }
+        return nodeSkeleton;
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.xmlbeans.XmlException;
 import org.assertj.core.groups.Tuple;
 import org.ehrbase.test_data.operationaltemplate.OperationalTemplateTestData;
 import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
 import org.ehrbase.webtemplate.parser.OPTParser;
 import org.junit.Test;
 import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
@@ -62,4 +63,28 @@ public class WebTemplateSkeletonBuilderTest {
                 "/content[openEHR-EHR-OBSERVATION.sample_blood_pressure.v1]/data[at0001]/events[at0002]/state[at0007]/items[at1005]/value"))
         .isNotNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void buildWithFactory() throws XmlException, IOException {
+
+        org.openehr.schemas.v1.TemplateDocument document = org.openehr.schemas.v1.TemplateDocument.Factory.parse(OperationalTemplateTestData.BLOOD_PRESSURE_SIMPLE.getStream());
+        OPERATIONALTEMPLATE operationaltemplate = document.getTemplate();
+
+        WebTemplate webTemplate = new OPTParser(operationaltemplate).parse().freeze();
+
+        WebTemplateSkeletonFactory factory = WebTemplateSkeletonFactory.of(webTemplate);
+        assertThat(WebTemplateSkeletonFactory.of(webTemplate)).isSameAs(factory);
+
+        Composition expected = WebTemplateSkeletonBuilder.build(webTemplate, false);
+        Composition actual = factory.build();
+        assertThat(actual).isEqualTo(expected);
+        assertThat(actual).isNotSameAs(factory.build());
+
+        WebTemplateNode observation = webTemplate.findByAqlPath("/content[openEHR-EHR-OBSERVATION.sample_blood_pressure.v1]").orElseThrow();
+        assertThat(factory.build(observation, Observation.class))
+                .isEqualTo(WebTemplateSkeletonBuilder.build(observation, false, Observation.class));
+
+        factory.insert(webTemplate.getTree(), actual, observation, factory.build(observation, Observation.class));
+        assertThat(actual.getContent()).hasSize(1);
+    }
+}
@@ -26,7 +26,6 @@ import java.beans.PropertyDescriptor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
-import java.util.Objects;
 import java.util.Optional;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
@@ -91,11 +90,10 @@ public class Flattener {
       String archetypeValue = clazz.getAnnotation(Archetype.class).value();
       WebTemplateNode root =
           templateProvider
-              .buildIntrospect(templateId)
+              .buildFrozenIntrospect(templateId)
               .orElseThrow(
                   () -> new SdkException(String.format("Can not find Template: %s", templateId)))
-              .getTree()
-              .findMatching(n -> Objects.equals(n.getNodeId(), archetypeValue))
+              .findAllByNodeId(archetypeValue)
               .get(0);
       new DtoFromCompositionWalker()
           .walk(
@@ -28,7 +28,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.Optional;
 
-import org.ehrbase.building.webtemplateskeletnbuilder.WebTemplateSkeletonBuilder;
+import org.ehrbase.building.webtemplateskeletnbuilder.WebTemplateSkeletonFactory;
 import org.ehrbase.client.annotations.Id;
 import org.ehrbase.client.annotations.Template;
 import org.ehrbase.client.exception.ClientException;
@@ -61,13 +61,13 @@ public class Unflattener {
 
 
     WebTemplate introspect = templateProvider
-            .buildIntrospect(template.value())
+            .buildFrozenIntrospect(template.value())
             .orElseThrow(
                     () ->
                             new SdkException(
                                     String.format("Can not find Template: %s", template.value())));
 
-    Composition generate = WebTemplateSkeletonBuilder.build(introspect,false);
+    Composition generate = WebTemplateSkeletonFactory.of(introspect).build();
     new DtoToCompositionWalker()
         .walk(
             generate,
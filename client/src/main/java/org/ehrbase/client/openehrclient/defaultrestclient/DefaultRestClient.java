@@ -39,6 +39,7 @@ import com.nedap.archie.rm.support.identification.ObjectRef;
 import com.nedap.archie.rm.support.identification.ObjectVersionId;
 import com.nedap.archie.rm.support.identification.UIDBasedId;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Map;
 import java.util.Optional;
@@ -131,12 +132,12 @@ public class DefaultRestClient implements OpenEhrClient {
   }
 
   protected VersionUid httpPost(URI uri, RMObject body, Map<String, String> headers) {
-    String bodyString = new CanonicalJson().marshal(body);
+    byte[] bodyBytes = new CanonicalJson().marshalToBytes(body);
     HttpResponse response =
         internalPost(
             uri,
             headers,
-            bodyString,
+            bodyBytes,
             ContentType.APPLICATION_JSON,
             ContentType.APPLICATION_JSON.getMimeType());
     Header eTag = response.getFirstHeader(HttpHeaders.ETAG);
@@ -153,13 +154,29 @@ public class DefaultRestClient implements OpenEhrClient {
       String bodyString,
       ContentType contentType,
       String accept) {
+    return internalPost(
+        Request.Post(uri)
+            .addHeader(HttpHeaders.ACCEPT, accept)
+            .bodyString(bodyString, contentType),
+        headers);
+  }
+
+  protected HttpResponse internalPost(
+      URI uri,
+      Map<String, String> headers,
+      byte[] body,
+      ContentType contentType,
+      String accept) {
+    return internalPost(
+        Request.Post(uri)
+            .addHeader(HttpHeaders.ACCEPT, accept)
+            .bodyByteArray(body, contentType),
+        headers);
+  }
+
+  private HttpResponse internalPost(Request request, Map<String, String> headers) {
     HttpResponse response;
     try {
-
-      Request request =
-          Request.Post(uri)
-              .addHeader(HttpHeaders.ACCEPT, accept)
-              .bodyString(bodyString, contentType);
       if (headers != null) {
         headers.forEach(request::addHeader);
       }
@@ -182,7 +199,8 @@ public class DefaultRestClient implements OpenEhrClient {
           Request.Put(uri)
               .addHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType())
               .addHeader(HttpHeaders.IF_MATCH, versionUid.toString())
-              .bodyString(new CanonicalJson().marshal(body), ContentType.APPLICATION_JSON);
+              .bodyByteArray(
+                  new CanonicalJson().marshalToBytes(body), ContentType.APPLICATION_JSON);
       if (headers != null) {
         headers.forEach(request::addHeader);
       }
@@ -210,8 +228,7 @@ public class DefaultRestClient implements OpenEhrClient {
             response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
       return Optional.empty();
     }
-    try {
-      String value = EntityUtils.toString(response.getEntity());
+    try (InputStream value = response.getEntity().getContent()) {
       return Optional.of(OBJECT_MAPPER.readValue(value, valueType));
     } catch (IOException e) {
       throw new ClientException(e.getMessage(), e);
@@ -0,0 +1,93 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation;
+
+import com.nedap.archie.rm.composition.Composition;
+import com.nedap.archie.rminfo.ArchieRMInfoLookup;
+import com.nedap.archie.rminfo.RMAttributeInfo;
+import org.ehrbase.serialisation.exception.UnmarshalException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+
+/**
+ * The top level attributes of a composition which are read without its content, e.g. by {@link
+ * org.ehrbase.serialisation.jsonencoding.CanonicalJson#unmarshalHeader(java.io.InputStream, Set)}.
+ * <p>
+ * A reader asks for the type of each attribute it finds, decodes only the requested ones, skips the others and stops
+ * once the header {@link #isComplete()}.
+ */
+public class CompositionHeader {
+
+    public static final Set<String> DEFAULT_ATTRIBUTES = Collections.unmodifiableSet(
+            new LinkedHashSet<>(Arrays.asList("uid", "archetype_details", "composer", "context", "language")));
+
+    private final Map<String, RMAttributeInfo> attributes = new HashMap<>();
+    private final Set<String> missing;
+    private final Composition composition = new Composition();
+
+    /**
+     * @param attributes the RM names of the single valued attributes to read, e.g. {@code archetype_details}
+     */
+    public CompositionHeader(Set<String> attributes) {
+        Map<String, RMAttributeInfo> compositionAttributes =
+                ArchieRMInfoLookup.getInstance().getTypeInfo(Composition.class).getAttributes();
+        for (String attribute : attributes) {
+            RMAttributeInfo attributeInfo = compositionAttributes.get(attribute);
+            if (attributeInfo == null || attributeInfo.isMultipleValued() || attributeInfo.getSetMethod() == null) {
+                throw new IllegalArgumentException(
+                        String.format("%s is no single valued attribute of COMPOSITION", attribute));
+            }
+            this.attributes.put(attribute, attributeInfo);
+        }
+        this.missing = new HashSet<>(attributes);
+    }
+
+    /**
+     * @param attribute the RM name of an attribute found in the input
+     * @return the type to decode the attribute to or {@code null} if it is to be skipped
+     */
+    public Class<?> getType(String attribute) {
+        return missing.contains(attribute) ? attributes.get(attribute).getType() : null;
+    }
+
+    public void set(String attribute, Object value) {
+        try {
+            attributes.get(attribute).getSetMethod().invoke(composition, value);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+        missing.remove(attribute);
+    }
+
+    /**
+     * @return {@code true} if all requested attributes are read
+     */
+    public boolean isComplete() {
+        return missing.isEmpty();
+    }
+
+    /**
+     * @return a composition with only the read attributes set
+     */
+    public Composition getComposition() {
+        return composition;
+    }
+}
@@ -19,6 +19,15 @@
 package org.ehrbase.serialisation;
 
 import com.nedap.archie.rm.RMObject;
+import org.apache.commons.io.IOUtils;
+import org.ehrbase.serialisation.exception.MarshalException;
+import org.ehrbase.serialisation.exception.UnmarshalException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public interface RMDataFormat {
 
@@ -26,5 +35,44 @@ public interface RMDataFormat {
 
     <T extends RMObject> T unmarshal(String value, Class<T> clazz);
 
+    /**
+     * Marshal {@code rmObject} to {@code out} in UTF-8. {@code out} is not closed.
+     * <p>
+     * The default goes through {@link #marshal(RMObject)}, formats override it to write directly.
+     */
+    default void marshal(RMObject rmObject, OutputStream out) {
+        try {
+            out.write(marshal(rmObject).getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new MarshalException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return {@code rmObject} marshalled in UTF-8
+     */
+    default byte[] marshalToBytes(RMObject rmObject) {
+        return marshal(rmObject).getBytes(UTF_8);
+    }
+
+    /**
+     * Unmarshal the UTF-8 encoded {@code value}. {@code value} is not closed, like {@code out} of
+     * {@link #marshal(RMObject, OutputStream)} the stream is owned by the caller.
+     * <p>
+     * The default goes through {@link #unmarshal(String, Class)}, formats override it to read directly.
+     */
+    default <T extends RMObject> T unmarshal(InputStream value, Class<T> clazz) {
+        try {
+            return unmarshal(IOUtils.toString(value, UTF_8), clazz);
+        } catch (IOException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+    }
 
+    /**
+     * Unmarshal the UTF-8 encoded {@code value}.
+     */
+    default <T extends RMObject> T unmarshal(byte[] value, Class<T> clazz) {
+        return unmarshal(new String(value, UTF_8), clazz);
+    }
 }
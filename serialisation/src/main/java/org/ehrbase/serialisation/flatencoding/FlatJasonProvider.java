@@ -23,12 +23,21 @@ package org.ehrbase.serialisation.flatencoding;
 import org.ehrbase.util.exception.SdkException;
 import org.ehrbase.webtemplate.templateprovider.TemplateProvider;
 
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Used to build the {@link org.ehrbase.serialisation.RMDataFormat} for flat jason for a template.
+ * <p>
+ * The {@link FlatJson} of a template is built once and then shared, it is thread-safe. It is rebuilt when the
+ * {@link TemplateProvider#findFingerprint(String)} of the template changes. For providers without fingerprint use
+ * {@link #invalidate(String)} if a template changes.
  */
 public class FlatJasonProvider {
 
     private final TemplateProvider templateProvider;
+    private final ConcurrentMap<String, FlatJson> simSdtCache = new ConcurrentHashMap<>();
 
     public FlatJasonProvider(TemplateProvider templateProvider) {
         this.templateProvider = templateProvider;
@@ -45,7 +54,15 @@ public class FlatJasonProvider {
 
         switch (format) {
             case SIM_SDT:
-                return new FlatJson(this, templateId);
+                String fingerprint = templateProvider.findFingerprint(templateId).orElse(null);
+                FlatJson flatJson = simSdtCache.get(templateId);
+                if (flatJson == null || !Objects.equals(flatJson.getFingerprint(), fingerprint)) {
+                    flatJson = simSdtCache.compute(templateId, (t, cached) ->
+                            cached != null && Objects.equals(cached.getFingerprint(), fingerprint)
+                                    ? cached
+                                    : new FlatJson(this, t, fingerprint));
+                }
+                return flatJson;
             default:
                 throw new SdkException(String.format("Format %s not supported", format));
         }
@@ -53,6 +70,16 @@ public class FlatJasonProvider {
 
     }
 
+    /**
+     * Removes the cached {@link FlatJson} of the template with {@code templateId}, so that the next call of
+     * {@link #buildFlatJson(FlatFormat, String)} reads the template again.
+     *
+     * @param templateId
+     */
+    public void invalidate(String templateId) {
+        simSdtCache.remove(templateId);
+    }
+
     TemplateProvider getTemplateProvider() {
         return templateProvider;
     }
@@ -24,18 +24,36 @@ import com.nedap.archie.rm.composition.Composition;
 import org.ehrbase.serialisation.RMDataFormat;
 import org.ehrbase.serialisation.exception.MarshalException;
 import org.ehrbase.serialisation.flatencoding.std.marshal.FlatJsonMarshaller;
+import org.ehrbase.serialisation.flatencoding.std.marshal.StdFromCompositionWalker;
+import org.ehrbase.serialisation.flatencoding.std.umarshal.FlatJsonDeltaUnmarshaller;
 import org.ehrbase.serialisation.flatencoding.std.umarshal.FlatJsonUnmarshaller;
+import org.ehrbase.serialisation.flatencoding.std.umarshal.FlatUnmarshalResult;
+import org.ehrbase.serialisation.flatencoding.std.umarshal.StdToCompositionWalker;
 import org.ehrbase.util.exception.SdkException;
 import org.ehrbase.webtemplate.model.WebTemplate;
 import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Flat json {@link RMDataFormat} of one template. It holds no per call state and can be shared between threads.
+ */
 public class FlatJson implements RMDataFormat {
 
   private final OPERATIONALTEMPLATE operationaltemplate;
-  private final WebTemplate templateIntrospect;
+  private final String fingerprint;
+  // frozen copies of the introspect prepared for the marshal and unmarshal walkers
+  private final WebTemplate marshalIntrospect;
+  private final WebTemplate unmarshalIntrospect;
   private final FlatJsonMarshaller flatJsonMarshaller;
+  private final FlatJsonUnmarshaller flatJsonUnmarshaller;
+  private final FlatJsonDeltaUnmarshaller flatJsonDeltaUnmarshaller;
+
+  FlatJson(FlatJasonProvider flatJasonProvider, String templateId, String fingerprint) {
 
-  FlatJson(FlatJasonProvider flatJasonProvider, String templateId) {
+    this.fingerprint = fingerprint;
 
     operationaltemplate =
         flatJasonProvider
@@ -45,19 +63,23 @@ public class FlatJson implements RMDataFormat {
                 () -> new SdkException(String.format("Template %s not found", templateId)));
 
 
-    templateIntrospect =
+    WebTemplate templateIntrospect =
         flatJasonProvider
             .getTemplateProvider()
             .buildIntrospect(templateId)
             .orElseThrow(
                 () -> new SdkException(String.format("Template %s not found", templateId)));
+    marshalIntrospect = new StdFromCompositionWalker().freeze(templateIntrospect);
+    unmarshalIntrospect = new StdToCompositionWalker().freeze(templateIntrospect);
     flatJsonMarshaller = new FlatJsonMarshaller();
+    flatJsonUnmarshaller = new FlatJsonUnmarshaller();
+    flatJsonDeltaUnmarshaller = new FlatJsonDeltaUnmarshaller();
   }
 
   @Override
   public String marshal(RMObject rmObject) {
     if (rmObject instanceof Composition) {
-      return flatJsonMarshaller.toFlatJson((Composition) rmObject, templateIntrospect);
+      return flatJsonMarshaller.toFlatJson((Composition) rmObject, marshalIntrospect);
     } else {
       throw new MarshalException(
           String.format(
@@ -75,7 +97,70 @@ public class FlatJson implements RMDataFormat {
     }
   }
 
+  @Override
+  public void marshal(RMObject rmObject, OutputStream out) {
+    if (rmObject instanceof Composition) {
+      flatJsonMarshaller.toFlatJson((Composition) rmObject, marshalIntrospect, out);
+    } else {
+      throw new MarshalException(
+          String.format(
+              "Class %s not supported in flat format", rmObject.getClass().getSimpleName()));
+    }
+  }
+
+  @Override
+  public byte[] marshalToBytes(RMObject rmObject) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    marshal(rmObject, out);
+    return out.toByteArray();
+  }
+
+  @Override
+  public <T extends RMObject> T unmarshal(InputStream value, Class<T> clazz) {
+    if (clazz.isAssignableFrom(Composition.class)) {
+      return (T) flatJsonUnmarshaller.unmarshalWithResult(value, unmarshalIntrospect).getComposition();
+    } else {
+      throw new SdkException(
+          String.format("Class %s not supported in flat format", clazz.getSimpleName()));
+    }
+  }
+
+  @Override
+  public <T extends RMObject> T unmarshal(byte[] value, Class<T> clazz) {
+    if (clazz.isAssignableFrom(Composition.class)) {
+      return (T) flatJsonUnmarshaller.unmarshalWithResult(value, unmarshalIntrospect).getComposition();
+    } else {
+      throw new SdkException(
+          String.format("Class %s not supported in flat format", clazz.getSimpleName()));
+    }
+  }
+
   public Composition unmarshal(String value) {
-    return new FlatJsonUnmarshaller().unmarshal(value, templateIntrospect);
+    return unmarshalWithResult(value).getComposition();
+  }
+
+  /**
+   * @param value the flat json
+   * @return the composition together with the paths of {@code value} which were not used
+   */
+  public FlatUnmarshalResult unmarshalWithResult(String value) {
+    return flatJsonUnmarshaller.unmarshalWithResult(value, unmarshalIntrospect);
+  }
+
+  /**
+   * Changes {@code composition} in place. Each content item touched by {@code delta} is rebuilt as
+   * a whole, see {@link FlatJsonDeltaUnmarshaller}.
+   *
+   * @param composition the composition to change
+   * @param delta flat json with the values to set, a {@code null} value removes the path
+   */
+  public void applyDelta(Composition composition, String delta) {
+    flatJsonDeltaUnmarshaller.applyDelta(
+        composition, delta, marshalIntrospect, unmarshalIntrospect);
+  }
+
+  /** @return the fingerprint of the template this was built from or {@code null} if unknown */
+  String getFingerprint() {
+    return fingerprint;
   }
 }
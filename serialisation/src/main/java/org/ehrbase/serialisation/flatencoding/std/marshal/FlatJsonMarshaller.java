@@ -19,11 +19,19 @@
 
 package org.ehrbase.serialisation.flatencoding.std.marshal;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.nedap.archie.rm.composition.Composition;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import org.ehrbase.serialisation.exception.MarshalException;
 import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
 import org.ehrbase.webtemplate.model.WebTemplate;
@@ -31,8 +39,22 @@ import org.ehrbase.webtemplate.model.WebTemplate;
 public class FlatJsonMarshaller {
 
   private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.getObjectMapper();
+  private static final ObjectWriter VALUE_WRITER =
+      OBJECT_MAPPER.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 
-  public FlatJsonMarshaller() {}
+  private final ForkJoinPool parallelPool;
+
+  public FlatJsonMarshaller() {
+    this(null);
+  }
+
+  /**
+   * @param parallelPool if not {@code null} the content of compositions of frozen templates is
+   *     marshalled in parallel on this pool, see {@link StdFromCompositionWalker#freeze(WebTemplate)}
+   */
+  public FlatJsonMarshaller(ForkJoinPool parallelPool) {
+    this.parallelPool = parallelPool;
+  }
 
   /**
    * Marshal the composition to flat json
@@ -45,7 +67,34 @@ public class FlatJsonMarshaller {
     Map<String, Object> result = new LinkedHashMap<>();
 
     String templateId = webTemplate.getTemplateId();
-    new StdFromCompositionWalker().walk(composition, result, webTemplate, null, templateId);
+    newWalker().walk(composition, result, webTemplate, null, templateId);
+
+    try {
+      return OBJECT_MAPPER.writeValueAsString(result);
+    } catch (JsonProcessingException e) {
+      throw new MarshalException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Marshal the values of the composition selected by {@code projection} to flat json. Only the
+   * parts of the template which can produce selected values are walked. For a frozen template the
+   * pruned template is reused, see {@link FlatProjection#prune(WebTemplate)}.
+   *
+   * @param composition
+   * @param webTemplate
+   * @param projection
+   * @return
+   */
+  public String toFlatJson(
+      Composition composition, WebTemplate webTemplate, FlatProjection projection) {
+
+    Map<String, Object> result = new LinkedHashMap<>();
+
+    String templateId = webTemplate.getTemplateId();
+    newWalker()
+        .walk(composition, result, projection.prune(webTemplate), null, templateId);
+    result.keySet().removeIf(k -> !projection.matches(k));
 
     try {
       return OBJECT_MAPPER.writeValueAsString(result);
@@ -53,4 +102,55 @@ public class FlatJsonMarshaller {
       throw new MarshalException(e.getMessage(), e);
     }
   }
+
+  /**
+   * Marshal the composition to flat json written to {@code out} in UTF-8. The values are written
+   * while the composition is walked, {@code out} is not closed.
+   *
+   * @param composition
+   * @param webTemplate
+   * @param out
+   */
+  public void toFlatJson(Composition composition, WebTemplate webTemplate, OutputStream out) {
+    try (JsonGenerator generator = VALUE_WRITER.createGenerator(out, JsonEncoding.UTF8)) {
+      toFlatJson(composition, webTemplate, generator);
+    } catch (IOException e) {
+      throw new MarshalException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Marshal the composition to flat json written to {@code writer}. The values are written while
+   * the composition is walked, {@code writer} is not closed.
+   *
+   * @param composition
+   * @param webTemplate
+   * @param writer
+   */
+  public void toFlatJson(Composition composition, WebTemplate webTemplate, Writer writer) {
+    try (JsonGenerator generator = VALUE_WRITER.createGenerator(writer)) {
+      toFlatJson(composition, webTemplate, generator);
+    } catch (IOException e) {
+      throw new MarshalException(e.getMessage(), e);
+    }
+  }
+
+  private void toFlatJson(Composition composition, WebTemplate webTemplate, JsonGenerator generator)
+      throws IOException {
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.writeStartObject();
+
+    StreamingFlatJsonMap result = new StreamingFlatJsonMap(generator, VALUE_WRITER);
+    String templateId = webTemplate.getTemplateId();
+    newWalker().walk(composition, result, webTemplate, null, templateId);
+    result.flush();
+
+    generator.writeEndObject();
+  }
+
+  private StdFromCompositionWalker newWalker() {
+    StdFromCompositionWalker walker = new StdFromCompositionWalker();
+    walker.setParallelPool(parallelPool);
+    return walker;
+  }
 }
@@ -0,0 +1,255 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.flatencoding.std.marshal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.ehrbase.serialisation.walker.FlatHelper;
+import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.ehrbase.util.rmconstants.RmConstants.ELEMENT;
+
+/**
+ * The values to which the flat json of {@link FlatJsonMarshaller#toFlatJson(
+ * com.nedap.archie.rm.composition.Composition, WebTemplate, FlatProjection)} is restricted.
+ *
+ * <p>A selector is either a flat path prefix, e.g. {@code corona_anamnese/symptome/husten}, or the
+ * id of a web template node, e.g. {@code husten}, which selects all values below the node. A path
+ * without counts selects all repetitions, a path with counts, e.g. {@code
+ * corona_anamnese/symptome:0/husten}, only the given ones.
+ */
+public class FlatProjection {
+
+  /** Maximal number of pruned templates kept per frozen template. */
+  public static final int PRUNED_CACHE_SIZE = 64;
+
+  private static final Pattern COUNT = Pattern.compile(":\\d+");
+
+  private final Set<String> selectors;
+  private final List<List<String>> pathSelectors = new ArrayList<>();
+  private final Set<String> idSelectors = new HashSet<>();
+
+  public FlatProjection(Collection<String> selectors) {
+    this.selectors = Collections.unmodifiableSet(new LinkedHashSet<>(selectors));
+    for (String selector : this.selectors) {
+      if (selector.contains("/")) {
+        pathSelectors.add(toSegments(selector));
+      } else {
+        idSelectors.add(StringUtils.substringBefore(COUNT.matcher(selector).replaceAll(""), "|"));
+      }
+    }
+  }
+
+  public static FlatProjection of(String... selectors) {
+    return new FlatProjection(Arrays.asList(selectors));
+  }
+
+  public Set<String> getSelectors() {
+    return selectors;
+  }
+
+  /**
+   * @param key a flat path of the output
+   * @return {@code true} if the value of {@code key} is selected
+   */
+  public boolean matches(String key) {
+    String withoutCount = COUNT.matcher(key).replaceAll("");
+    for (String selector : selectors) {
+      if (!selector.contains("/")) {
+        continue;
+      }
+      if (selector.contains(":") ? isPrefix(selector, key) : isPrefix(selector, withoutCount)) {
+        return true;
+      }
+    }
+    if (!idSelectors.isEmpty()) {
+      for (String segment : StringUtils.substringBefore(withoutCount, "|").split("/")) {
+        for (String id : idSelectors) {
+          if (matchesSegment(id, segment)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a copy of {@code webTemplate} without the subtrees which can not produce selected
+   * values. Nodes which decide the flat paths of their siblings, i.e. the children of an ELEMENT,
+   * events, choices and nodes with numbered ids, are kept, so the selected values have the same
+   * paths as in the output of the whole template.
+   *
+   * @param webTemplate the template, it is not modified
+   * @return the pruned copy. For a frozen {@code webTemplate} it is frozen and shared by the
+   *     projections with the same selectors. The last {@value #PRUNED_CACHE_SIZE} of them are kept
+   *     with the template.
+   */
+  public WebTemplate prune(WebTemplate webTemplate) {
+    if (webTemplate.isFrozen()) {
+      Map<Set<String>, WebTemplate> prunedCache =
+          webTemplate.computeDerivedIfAbsent(FlatProjection.class, w -> newPrunedCache());
+      WebTemplate pruned = prunedCache.get(selectors);
+      if (pruned == null) {
+        pruned = pruneCopy(webTemplate).freeze(webTemplate.getNormalisedFor());
+        WebTemplate concurrent = prunedCache.putIfAbsent(selectors, pruned);
+        pruned = concurrent != null ? concurrent : pruned;
+      }
+      return pruned;
+    }
+    return pruneCopy(webTemplate);
+  }
+
+  private static Map<Set<String>, WebTemplate> newPrunedCache() {
+    return Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Set<String>, WebTemplate> eldest) {
+            return size() > PRUNED_CACHE_SIZE;
+          }
+        });
+  }
+
+  private WebTemplate pruneCopy(WebTemplate webTemplate) {
+    WebTemplate copy = new WebTemplate(webTemplate);
+    FlatHelper<Object> flatHelper = new FlatHelper<>();
+    Map<List<String>, Set<String>> fullPaths = new HashMap<>();
+    collectFullPaths(copy.getTree(), null, List.of(), "", fullPaths, flatHelper);
+    prune(copy.getTree(), null, List.of(), fullPaths, flatHelper);
+    return copy;
+  }
+
+  private void collectFullPaths(
+      WebTemplateNode node,
+      WebTemplateNode parent,
+      List<String> parentPath,
+      String parentFullPath,
+      Map<List<String>, Set<String>> fullPaths,
+      FlatHelper<Object> flatHelper) {
+    List<String> namePath = namePath(node, parent, parentPath, flatHelper);
+    String fullPath = parentFullPath + node.getId();
+    fullPaths.computeIfAbsent(namePath, k -> new HashSet<>()).add(fullPath);
+    for (WebTemplateNode child : node.getChildren()) {
+      collectFullPaths(child, node, namePath, fullPath, fullPaths, flatHelper);
+    }
+  }
+
+  /** @return {@code true} if {@code node} has to be kept */
+  private boolean prune(
+      WebTemplateNode node,
+      WebTemplateNode parent,
+      List<String> parentPath,
+      Map<List<String>, Set<String>> fullPaths,
+      FlatHelper<Object> flatHelper) {
+    boolean skip = flatHelper.skip(node, parent);
+    List<String> namePath = namePath(node, parent, parentPath, flatHelper);
+
+    // the numbering of ids depends on all nodes with the same name path
+    if ((!skip && isSelected(node, namePath)) || fullPaths.get(namePath).size() > 1) {
+      return true;
+    }
+
+    // the skip of a node depends on its siblings, so all children are decided before any is removed
+    Set<String> keptAqlPaths = new HashSet<>();
+    for (WebTemplateNode child : node.getChildren()) {
+      if (prune(child, node, namePath, fullPaths, flatHelper)) {
+        keptAqlPaths.add(child.getAqlPath());
+      }
+    }
+    if (!ELEMENT.equals(node.getRmType())) {
+      node.getChildren()
+          .removeIf(c -> !keptAqlPaths.contains(c.getAqlPath()) && !flatHelper.isEvent(c));
+    }
+    return !keptAqlPaths.isEmpty();
+  }
+
+  private static List<String> namePath(
+      WebTemplateNode node,
+      WebTemplateNode parent,
+      List<String> parentPath,
+      FlatHelper<Object> flatHelper) {
+    if (flatHelper.skip(node, parent)) {
+      return parentPath;
+    }
+    List<String> namePath = new ArrayList<>(parentPath);
+    namePath.add(node.getId(false));
+    return namePath;
+  }
+
+  private boolean isSelected(WebTemplateNode node, List<String> namePath) {
+    for (String id : idSelectors) {
+      if (matchesSegment(node.getId(false), id)) {
+        return true;
+      }
+    }
+    for (List<String> selector : pathSelectors) {
+      if (selector.size() <= namePath.size() && isPrefix(selector, namePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isPrefix(List<String> selector, List<String> namePath) {
+    for (int i = 0; i < selector.size(); i++) {
+      if (!matchesSegment(namePath.get(i), selector.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isPrefix(String selector, String path) {
+    return path.startsWith(selector)
+        && (path.length() == selector.length()
+            || "/|:".indexOf(path.charAt(selector.length())) >= 0);
+  }
+
+  /** @return {@code true} if {@code segment} is {@code id} with an optional number */
+  private static boolean matchesSegment(String id, String segment) {
+    return segment.equals(id)
+        || (segment.startsWith(id) && StringUtils.isNumeric(segment.substring(id.length())));
+  }
+
+  private static List<String> toSegments(String selector) {
+    String path = StringUtils.substringBefore(COUNT.matcher(selector).replaceAll(""), "|");
+    return Arrays.asList(StringUtils.removeEnd(path, "/").split("/"));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    FlatProjection that = (FlatProjection) o;
+    return selectors.equals(that.selectors);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(selectors);
+  }
+}
@@ -28,9 +28,9 @@ import org.ehrbase.serialisation.walker.FromCompositionWalker;
 import org.ehrbase.util.reflection.ReflectionHelper;
 import org.ehrbase.webtemplate.model.WebTemplateNode;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -41,8 +41,8 @@ public class StdFromCompositionWalker extends FromCompositionWalker<Map<String,
 
   private static final Map<Class<? extends RMObject>, StdConfig> configMap =
       ReflectionHelper.buildMap(StdConfig.class);
-  private static final Map<Class<? extends RMObject>, MarshalPostprocessor> POSTPROCESSOR_MAP =
-      ReflectionHelper.buildMap(MarshalPostprocessor.class);
+  private static final ClassValue<List<MarshalPostprocessor>> POSTPROCESSOR_MAP =
+      ReflectionHelper.buildHierarchyMap(MarshalPostprocessor.class);
   public static final DefaultStdConfig DEFAULT_STD_CONFIG = new DefaultStdConfig();
 
   @Override
@@ -72,26 +72,40 @@ public class StdFromCompositionWalker extends FromCompositionWalker<Map<String,
 
   @Override
   protected void postHandle(Context<Map<String, Object>> context) {
-    List<MarshalPostprocessor<? super RMObject>> postprocessor = new ArrayList<>();
-
-    Class<?> currentClass = context.getRmObjectDeque().peek().getClass();
-
-    while (currentClass != null) {
-      if (POSTPROCESSOR_MAP.containsKey(currentClass)) {
-        postprocessor.add(POSTPROCESSOR_MAP.get(currentClass));
-      }
+    List<MarshalPostprocessor> postprocessor =
+        POSTPROCESSOR_MAP.get(context.getRmObjectDeque().peek().getClass());
+
+    // the postprocessors of superclasses first
+    for (ListIterator<MarshalPostprocessor> iterator =
+            postprocessor.listIterator(postprocessor.size());
+        iterator.hasPrevious(); ) {
+      iterator
+          .previous()
+          .process(
+              context.getFlatHelper().buildNamePath(context, true),
+              context.getRmObjectDeque().peek(),
+              context.getObjectDeque().peek());
+    }
 
-      currentClass = currentClass.getSuperclass();
+    // the values of a completed child of the composition are final
+    if (context.getNodeDeque().size() == 2
+        && context.getObjectDeque().peek() instanceof StreamingFlatJsonMap) {
+      ((StreamingFlatJsonMap) context.getObjectDeque().peek()).flush();
     }
+  }
 
-    Collections.reverse(postprocessor);
+  @Override
+  protected Map<String, Object> forkObject(Map<String, Object> object) {
+    return new LinkedHashMap<>();
+  }
 
-    postprocessor.forEach(
-        p ->
-            p.process(
-                context.getFlatHelper().buildNamePath(context, true),
-                context.getRmObjectDeque().peek(),
-                context.getObjectDeque().peek()));
+  @Override
+  protected void joinObject(Map<String, Object> object, Map<String, Object> forked) {
+    object.putAll(forked);
+    // the slices are joined in walk order, so the values of a joined slice are final
+    if (object instanceof StreamingFlatJsonMap) {
+      ((StreamingFlatJsonMap) object).flush();
+    }
   }
 
   @Override
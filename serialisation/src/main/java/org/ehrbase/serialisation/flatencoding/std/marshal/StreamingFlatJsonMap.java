@@ -0,0 +1,59 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.flatencoding.std.marshal;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.ehrbase.serialisation.exception.MarshalException;
+
+/**
+ * Flat values which are written to a {@link JsonGenerator} whenever {@link StdFromCompositionWalker}
+ * has completed a direct child of the composition. In a parallel walk the content items are
+ * written when their slice is joined, in walk order.
+ *
+ * <p>The entries of a completed subtree are not changed by the walker anymore, so only the values
+ * of the subtree in progress are held in memory.
+ */
+class StreamingFlatJsonMap extends LinkedHashMap<String, Object> {
+
+  private final transient JsonGenerator generator;
+  private final transient ObjectWriter objectWriter;
+
+  StreamingFlatJsonMap(JsonGenerator generator, ObjectWriter objectWriter) {
+    this.generator = generator;
+    this.objectWriter = objectWriter;
+  }
+
+  /** Writes the current entries as fields of the open json object and removes them. */
+  void flush() {
+    try {
+      for (Map.Entry<String, Object> e : entrySet()) {
+        generator.writeFieldName(e.getKey());
+        objectWriter.writeValue(generator, e.getValue());
+      }
+    } catch (IOException e) {
+      throw new MarshalException(e.getMessage(), e);
+    }
+    clear();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.flatencoding.std.umarshal;
+
+import org.ehrbase.webtemplate.path.flat.FlatPathDto;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The consumed paths of one flat input. A path of the input is recorded as a bit at the position
+ * of its entry, so neither the consumed paths nor the unconsumed ones are copied into new sets.
+ * Consumed paths which are not part of the input are kept as they are.
+ */
+public class ConsumedPaths extends AbstractSet<String> {
+
+  private static final String CTX = "ctx";
+
+  private final String[] paths;
+  private final Map<String, Integer> ordinals;
+  private final BitSet consumed;
+  // paths which do not have to be consumed
+  private final BitSet ignored;
+  private final Set<String> other = new HashSet<>();
+
+  /** @param paths the paths of the input in input order */
+  ConsumedPaths(Collection<String> paths) {
+    this.paths = paths.toArray(new String[0]);
+    this.ordinals = new HashMap<>(this.paths.length * 4 / 3 + 1);
+    this.consumed = new BitSet(this.paths.length);
+    this.ignored = new BitSet(this.paths.length);
+    for (int i = 0; i < this.paths.length; i++) {
+      ordinals.put(this.paths[i], i);
+      if (this.paths[i].startsWith(CTX)) {
+        ignored.set(i);
+      }
+    }
+  }
+
+  /**
+   * Adds {@code path} to {@code consumedPaths}. A path read from the input of {@code consumedPaths}
+   * is recorded by its ordinal without formatting it.
+   *
+   * @return {@code true} if {@code path} was not consumed before
+   */
+  public static boolean add(Set<String> consumedPaths, FlatPathDto path) {
+    if (consumedPaths instanceof ConsumedPaths) {
+      return ((ConsumedPaths) consumedPaths).add(path);
+    }
+    return consumedPaths.add(path.format());
+  }
+
+  private boolean add(FlatPathDto path) {
+    int ordinal = path.getOrdinal();
+    if (ordinal < 0 || ordinal >= paths.length) {
+      return add(path.format());
+    }
+    boolean added = !consumed.get(ordinal);
+    consumed.set(ordinal);
+    return added;
+  }
+
+  @Override
+  public boolean add(String path) {
+    Integer ordinal = ordinals.get(path);
+    if (ordinal == null) {
+      return other.add(path);
+    }
+    boolean added = !consumed.get(ordinal);
+    consumed.set(ordinal);
+    return added;
+  }
+
+  @Override
+  public boolean contains(Object path) {
+    Integer ordinal = ordinals.get(path);
+    return ordinal != null ? consumed.get(ordinal) : other.contains(path);
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return Stream.concat(consumed.stream().mapToObj(i -> paths[i]), other.stream()).iterator();
+  }
+
+  @Override
+  public int size() {
+    return consumed.cardinality() + other.size();
+  }
+
+  /** @return {@code true} if all paths of the input except the ctx paths are consumed */
+  boolean isAllConsumed() {
+    BitSet done = (BitSet) consumed.clone();
+    done.or(ignored);
+    return done.nextClearBit(0) >= paths.length;
+  }
+
+  /** @return the paths of the input which were not consumed, without the ctx paths */
+  Set<String> getUnconsumed() {
+    Set<String> unconsumed = new LinkedHashSet<>();
+    for (int i = nextUnconsumed(0); i < paths.length; i = nextUnconsumed(i + 1)) {
+      unconsumed.add(paths[i]);
+    }
+    return unconsumed;
+  }
+
+  private int nextUnconsumed(int from) {
+    int i = consumed.nextClearBit(from);
+    while (i < paths.length && ignored.get(i)) {
+      i = consumed.nextClearBit(i + 1);
+    }
+    return i;
+  }
+}
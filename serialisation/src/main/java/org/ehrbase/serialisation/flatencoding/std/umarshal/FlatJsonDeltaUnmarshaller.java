@@ -0,0 +1,334 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.flatencoding.std.umarshal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nedap.archie.rm.composition.Composition;
+import com.nedap.archie.rminfo.RMAttributeInfo;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.ehrbase.serialisation.exception.UnmarshalException;
+import org.ehrbase.serialisation.flatencoding.std.marshal.FlatJsonMarshaller;
+import org.ehrbase.serialisation.flatencoding.std.marshal.FlatProjection;
+import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
+import org.ehrbase.serialisation.walker.Context;
+import org.ehrbase.serialisation.walker.ItemAccessor;
+import org.ehrbase.serialisation.walker.ItemExtractor;
+import org.ehrbase.serialisation.walker.Walker;
+import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+import org.ehrbase.webtemplate.path.flat.FlatPathDto;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+
+/**
+ * Applies a flat json delta to an existing composition in place.
+ *
+ * <p>The paths of the delta are grouped by the item of the composition they belong to, i.e. a
+ * content item or the context with its count. Only these items are marshalled, changed and
+ * unmarshalled again and then replace the old ones in the composition. All other items, including
+ * the unchanged items of the same node, keep their instances.
+ *
+ * <p>The granularity is the top level item: a delta which changes a single element of a section
+ * rebuilds the whole section. The cost therefore depends on the size of the changed items and not
+ * on the size of the composition.
+ */
+public class FlatJsonDeltaUnmarshaller {
+
+  private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.getObjectMapper();
+  private static final String CTX = "ctx";
+
+  private final FlatJsonMarshaller flatJsonMarshaller = new FlatJsonMarshaller();
+  private final FlatJsonUnmarshaller flatJsonUnmarshaller = new FlatJsonUnmarshaller();
+
+  /**
+   * Applies {@code delta} to {@code composition}. Every content item or context touched by the
+   * delta is rebuilt as a whole, see {@link FlatJsonDeltaUnmarshaller}.
+   *
+   * @param composition the composition to change
+   * @param delta flat json with the values to set. A {@code null} value removes the path. The
+   *     paths must have the counts as written by {@link FlatJsonMarshaller}. Paths starting with
+   *     {@code ctx/} are used as defaults for the changed children.
+   * @param marshalIntrospect the introspect for marshalling, e.g. frozen by {@link
+   *     org.ehrbase.serialisation.flatencoding.std.marshal.StdFromCompositionWalker}
+   * @param unmarshalIntrospect the introspect for unmarshalling, e.g. frozen by {@link
+   *     StdToCompositionWalker}
+   */
+  public void applyDelta(
+      Composition composition,
+      String delta,
+      WebTemplate marshalIntrospect,
+      WebTemplate unmarshalIntrospect) {
+
+    Map<String, String> deltaValues;
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(delta)) {
+      deltaValues = FlatJsonReader.read(parser);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+
+    WebTemplateNode root = unmarshalIntrospect.getTree();
+    Map<String, WebTemplateNode> children = findChildren(root);
+
+    // the changed children with the changed counts
+    Map<WebTemplateNode, SortedSet<Integer>> changed = new LinkedHashMap<>();
+    Map<WebTemplateNode, String> bases = new HashMap<>();
+    for (String path : deltaValues.keySet()) {
+      ImmutablePair<WebTemplateNode, Integer> child = findChild(path, root, children);
+      if (child != null) {
+        changed.computeIfAbsent(child.getLeft(), k -> new TreeSet<>()).add(child.getRight());
+        bases.putIfAbsent(child.getLeft(), toBase(path));
+      }
+    }
+    if (changed.isEmpty()) {
+      return;
+    }
+
+    // only the changed counts are marshalled, they are renumbered before they are unmarshalled
+    Set<String> prefixes = new LinkedHashSet<>();
+    changed.forEach(
+        (child, counts) -> {
+          for (Integer count : counts) {
+            prefixes.add(toPrefix(bases.get(child), child, count));
+          }
+        });
+
+    Map<String, String> values;
+    String old =
+        flatJsonMarshaller.toFlatJson(
+            composition, marshalIntrospect, new FlatProjection(prefixes));
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(old)) {
+      values = FlatJsonReader.read(parser);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+    deltaValues.forEach(
+        (k, v) -> {
+          if ("null".equals(v)) {
+            values.remove(k);
+          } else {
+            values.put(k, v);
+          }
+        });
+
+    // the counts which still have values
+    Map<WebTemplateNode, SortedSet<Integer>> present = new HashMap<>();
+    for (String path : values.keySet()) {
+      ImmutablePair<WebTemplateNode, Integer> child = findChild(path, root, children);
+      if (child != null) {
+        present.computeIfAbsent(child.getLeft(), k -> new TreeSet<>()).add(child.getRight());
+      }
+    }
+    Composition rebuilt =
+        flatJsonUnmarshaller
+            .unmarshalWithResult(renumber(values, root, children, present), unmarshalIntrospect)
+            .getComposition();
+
+    changed.forEach(
+        (child, counts) ->
+            replace(
+                composition,
+                rebuilt,
+                root,
+                child,
+                counts,
+                present.getOrDefault(child, Collections.emptySortedSet())));
+  }
+
+  /** @return the children of {@code root} by the first segment of their flat paths */
+  private static Map<String, WebTemplateNode> findChildren(WebTemplateNode root) {
+    Map<String, WebTemplateNode> children = new HashMap<>();
+    Context<Object> context = new Context<>();
+    context.getNodeDeque().push(root);
+    for (WebTemplateNode child : root.getChildren()) {
+      context.getNodeDeque().push(child);
+      String path = context.getFlatHelper().buildNamePath(context, false);
+      context.getNodeDeque().remove();
+      if (path.contains("/")) {
+        children.putIfAbsent(StringUtils.substringAfter(path, "/"), child);
+      }
+    }
+    return children;
+  }
+
+  /**
+   * @return the child of the composition and its count to which {@code path} belongs or {@code
+   *     null} for a ctx path
+   */
+  private static ImmutablePair<WebTemplateNode, Integer> findChild(
+      String path, WebTemplateNode root, Map<String, WebTemplateNode> children) {
+    FlatPathDto flatPath = new FlatPathDto(path);
+    if (CTX.equals(flatPath.getName())) {
+      return null;
+    }
+    FlatPathDto childPath = flatPath.getChild();
+    WebTemplateNode child =
+        root.getId(false).equals(flatPath.getName()) && childPath != null
+            ? children.get(childPath.getName())
+            : null;
+    if (child == null) {
+      throw new UnmarshalException(String.format("Path %s can not be applied as delta", path));
+    }
+    return new ImmutablePair<>(child, Optional.ofNullable(childPath.getCount()).orElse(0));
+  }
+
+  /**
+   * @return the flat path of the child of the composition to which {@code path} belongs without
+   *     count
+   */
+  private static String toBase(String path) {
+    FlatPathDto flatPath = new FlatPathDto(path);
+    return flatPath.getName() + "/" + flatPath.getChild().getName();
+  }
+
+  /** @return the flat path of {@code child} with {@code count} */
+  private static String toPrefix(String base, WebTemplateNode child, int count) {
+    return child.getMax() != 1 ? base + ":" + count : base;
+  }
+
+  /**
+   * Numbers the items of each child in {@code present} consecutively from 0, as the unmarshaller
+   * expects. The i-th of the present counts becomes count i.
+   */
+  private static Map<String, String> renumber(
+      Map<String, String> values,
+      WebTemplateNode root,
+      Map<String, WebTemplateNode> children,
+      Map<WebTemplateNode, SortedSet<Integer>> present) {
+    Map<String, String> renumbered = new LinkedHashMap<>();
+    values.forEach(
+        (path, value) -> {
+          ImmutablePair<WebTemplateNode, Integer> child = findChild(path, root, children);
+          if (child == null || child.getLeft().getMax() == 1) {
+            renumbered.put(path, value);
+            return;
+          }
+          FlatPathDto flatPath = new FlatPathDto(path);
+          flatPath
+              .getChild()
+              .setCount(present.get(child.getLeft()).headSet(child.getRight()).size());
+          renumbered.put(flatPath.format(), value);
+        });
+    return renumbered;
+  }
+
+  /**
+   * Replaces the items of {@code child} with {@code changedCounts} in {@code composition} by the
+   * ones of {@code rebuilt}, which only contains the items with {@code presentCounts} in ascending
+   * order. Changed counts which are not present are removed.
+   */
+  private static void replace(
+      Composition composition,
+      Composition rebuilt,
+      WebTemplateNode root,
+      WebTemplateNode child,
+      SortedSet<Integer> changedCounts,
+      SortedSet<Integer> presentCounts) {
+
+    ItemAccessor accessor = new ItemAccessor(root, child);
+    RMAttributeInfo attributeInfo =
+        accessor.isDirect()
+            ? Walker.ARCHIE_RM_INFO_LOOKUP
+                .getTypeInfo(Composition.class)
+                .getAttributes()
+                .get(accessor.getAttributeName())
+            : null;
+    if (attributeInfo == null
+        || attributeInfo.getGetMethod() == null
+        || attributeInfo.getSetMethod() == null) {
+      throw new UnmarshalException(
+          String.format("Path %s can not be applied as delta", child.getAqlPath()));
+    }
+
+    Object newItems = new ItemExtractor(rebuilt, accessor, child, false).invoke().getChild();
+
+    try {
+      if (!attributeInfo.isMultipleValued()) {
+        attributeInfo
+            .getSetMethod()
+            .invoke(composition, presentCounts.isEmpty() ? null : newItems);
+        return;
+      }
+
+      List<Object> oldList =
+          toList(new ItemExtractor(composition, accessor, child, false).invoke().getChild());
+      List<Object> newList = toList(newItems);
+      if (newList.size() != presentCounts.size()) {
+        throw new UnmarshalException(
+            String.format("Delta for %s could not be unmarshalled", child.getAqlPath()));
+      }
+
+      List<Object> container = (List<Object>) attributeInfo.getGetMethod().invoke(composition);
+      if (container == null) {
+        container = new ArrayList<>();
+        attributeInfo.getSetMethod().invoke(composition, container);
+      }
+
+      // new items are added after the existing ones of the same node
+      int insertAt =
+          oldList.isEmpty()
+              ? container.size()
+              : indexOf(container, oldList.get(oldList.size() - 1)) + 1;
+      List<Integer> present = new ArrayList<>(presentCounts);
+      List<Object> removed = new ArrayList<>();
+      for (Integer count : changedCounts) {
+        int i = present.indexOf(count);
+        Object newItem = i >= 0 ? newList.get(i) : null;
+        if (count < oldList.size()) {
+          if (newItem != null) {
+            container.set(indexOf(container, oldList.get(count)), newItem);
+          } else {
+            removed.add(oldList.get(count));
+          }
+        } else if (newItem != null) {
+          container.add(insertAt++, newItem);
+        }
+      }
+      for (Object item : removed) {
+        container.remove(indexOf(container, item));
+      }
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+  }
+
+  private static List<Object> toList(Object items) {
+    if (items == null) {
+      return Collections.emptyList();
+    } else if (items instanceof List) {
+      return (List<Object>) items;
+    } else {
+      return Collections.singletonList(items);
+    }
+  }
+
+  /** Index by identity, as RM objects with the same values are equal. */
+  private static int indexOf(List<Object> list, Object item) {
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i) == item) {
+        return i;
+      }
+    }
+    throw new UnmarshalException("Item not found in composition");
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.flatencoding.std.umarshal;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.ehrbase.serialisation.exception.UnmarshalException;
+
+/**
+ * Reads the key value pairs of a flat json with a {@link JsonParser} in a single pass.
+ *
+ * <p>The values are returned as json text, as the {@link
+ * org.ehrbase.serialisation.flatencoding.std.umarshal.rmunmarshaller.RMUnmarshaller} convert them
+ * with the object mapper. Scalars are written directly from the token instead of building a {@link
+ * com.fasterxml.jackson.databind.JsonNode} tree and serializing every node again.
+ */
+class FlatJsonReader {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final JsonStringEncoder JSON_STRING_ENCODER = JsonStringEncoder.getInstance();
+
+  private FlatJsonReader() {
+    // NOP
+  }
+
+  /**
+   * @param parser parser positioned before the flat json object
+   * @return the values as json text by flat path, in the order of the input
+   * @throws IOException if the input can not be read
+   */
+  static Map<String, String> read(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new UnmarshalException("Flat json must be a json object");
+    }
+
+    Map<String, String> values = new LinkedHashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String key = parser.getCurrentName();
+      parser.nextToken();
+      values.put(key, readValue(parser));
+    }
+    return values;
+  }
+
+  private static String readValue(JsonParser parser) throws IOException {
+    switch (parser.currentToken()) {
+      case VALUE_STRING:
+        StringBuilder sb = new StringBuilder(parser.getTextLength() + 2).append('"');
+        JSON_STRING_ENCODER.quoteAsString(parser.getText(), sb);
+        return sb.append('"').toString();
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+      case VALUE_TRUE:
+      case VALUE_FALSE:
+      case VALUE_NULL:
+        return parser.getText();
+      default:
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+          generator.copyCurrentStructure(parser);
+        }
+        return writer.toString();
+    }
+  }
+}
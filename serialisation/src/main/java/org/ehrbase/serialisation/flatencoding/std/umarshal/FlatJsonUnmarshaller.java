@@ -19,22 +19,19 @@
 
 package org.ehrbase.serialisation.flatencoding.std.umarshal;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nedap.archie.rm.composition.Composition;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.time.OffsetDateTime;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
-import org.apache.commons.collections4.CollectionUtils;
-import org.ehrbase.building.webtemplateskeletnbuilder.WebTemplateSkeletonBuilder;
+import org.ehrbase.building.webtemplateskeletnbuilder.WebTemplateSkeletonFactory;
 import org.ehrbase.client.classgenerator.shareddefinition.Setting;
 import org.ehrbase.serialisation.exception.UnmarshalException;
 import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
@@ -47,9 +44,21 @@ public class FlatJsonUnmarshaller {
 
   private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.getObjectMapper();
 
-  private Set<String> consumedPath;
+  private final boolean strict;
 
-  private Map<String, String> currentValues;
+  private FlatUnmarshalResult lastResult;
+
+  public FlatJsonUnmarshaller() {
+    this(false);
+  }
+
+  /**
+   * @param strict if {@code true} an input with paths which are not used, except the ctx paths,
+   *     is rejected with an {@link UnmarshalException}
+   */
+  public FlatJsonUnmarshaller(boolean strict) {
+    this.strict = strict;
+  }
 
   /**
    * Unmarshal flat Json to Composition
@@ -60,49 +69,163 @@ public class FlatJsonUnmarshaller {
    */
   public Composition unmarshal(
           String flat, WebTemplate introspect) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return unmarshal(parser, introspect);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Unmarshal flat Json to Composition
+   *
+   * @param flat the flat Json. It is not closed.
+   * @param introspect the introspect belonging to the template
+   * @return
+   */
+  public Composition unmarshal(Reader flat, WebTemplate introspect) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return unmarshal(parser, introspect);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Unmarshal flat Json to Composition
+   *
+   * @param flat the flat Json, encoding is detected by the parser. It is not closed.
+   * @param introspect the introspect belonging to the template
+   * @return
+   */
+  public Composition unmarshal(InputStream flat, WebTemplate introspect) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return unmarshal(parser, introspect);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Unmarshal flat Json to Composition
+   *
+   * @param flat the flat Json, encoding is detected by the parser
+   * @param introspect the introspect belonging to the template
+   * @return
+   */
+  public Composition unmarshal(byte[] flat, WebTemplate introspect) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return unmarshal(parser, introspect);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+  }
 
-    consumedPath = new HashSet<>();
-
-    try {
-
-      currentValues = new HashMap<>();
-      for (Iterator<Map.Entry<String, JsonNode>> it = OBJECT_MAPPER.readTree(flat).fields();
-          it.hasNext(); ) {
-        Map.Entry<String, JsonNode> e = it.next();
-        currentValues.put(e.getKey(), e.getValue().toString());
-      }
-
-      Composition generate =  WebTemplateSkeletonBuilder.build(introspect,false);
-
-      StdToCompositionWalker walker = new StdToCompositionWalker();
-      DefaultValues defaultValues = new DefaultValues(currentValues);
-      // put default for the defaults
-      if (!defaultValues.containsDefaultValue(DefaultValuePath.TIME)) {
-        defaultValues.addDefaultValue(DefaultValuePath.TIME, OffsetDateTime.now());
-      }
-      if (!defaultValues.containsDefaultValue(DefaultValuePath.SETTING)) {
-        defaultValues.addDefaultValue(DefaultValuePath.SETTING, Setting.OTHER_CARE);
-      }
-
-      String templateId = generate.getArchetypeDetails().getTemplateId().getValue();
-      walker.walk(generate, currentValues.entrySet().stream().collect(Collectors.toMap(e1 -> new FlatPathDto( e1.getKey()), Map.Entry::getValue)), introspect, defaultValues, templateId);
-      consumedPath = walker.getConsumedPaths();
-      if (!CollectionUtils.isEmpty(getUnconsumed())){
-        // @TODO add validate consumed paths
-        //    throw new UnmarshalException(String.format("Could not consume Parts %s",getUnconsumed()));
-      }
-
-      return generate;
-    } catch (JsonProcessingException e) {
+  /**
+   * Unmarshal flat Json to Composition. Unlike {@link #unmarshal(String, WebTemplate)} this does not
+   * keep any state in the unmarshaller, so one instance can be used by several threads.
+   *
+   * @param flat the flat Json
+   * @param introspect the introspect belonging to the template
+   * @return the composition and the consumed paths
+   */
+  public FlatUnmarshalResult unmarshalWithResult(String flat, WebTemplate introspect) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return unmarshalWithResult(parser, introspect);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Unmarshal flat Json to Composition without keeping state, see {@link
+   * #unmarshalWithResult(String, WebTemplate)}.
+   *
+   * @param flat the flat Json, encoding is detected by the parser. It is not closed.
+   * @param introspect the introspect belonging to the template
+   * @return the composition and the consumed paths
+   */
+  public FlatUnmarshalResult unmarshalWithResult(InputStream flat, WebTemplate introspect) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return unmarshalWithResult(parser, introspect);
+    } catch (IOException e) {
       throw new UnmarshalException(e.getMessage(), e);
     }
   }
 
+  /**
+   * Unmarshal flat Json to Composition without keeping state, see {@link
+   * #unmarshalWithResult(String, WebTemplate)}.
+   *
+   * @param flat the flat Json, encoding is detected by the parser
+   * @param introspect the introspect belonging to the template
+   * @return the composition and the consumed paths
+   */
+  public FlatUnmarshalResult unmarshalWithResult(byte[] flat, WebTemplate introspect) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return unmarshalWithResult(parser, introspect);
+    } catch (IOException e) {
+      throw new UnmarshalException(e.getMessage(), e);
+    }
+  }
+
+  private Composition unmarshal(JsonParser parser, WebTemplate introspect) throws IOException {
+
+    FlatUnmarshalResult result = unmarshalWithResult(parser, introspect);
+    lastResult = result;
+    return result.getComposition();
+  }
+
+  private FlatUnmarshalResult unmarshalWithResult(JsonParser parser, WebTemplate introspect)
+      throws IOException {
+    // streams and readers are owned by the caller
+    parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    return unmarshalWithResult(FlatJsonReader.read(parser), introspect);
+  }
+
+  /**
+   * @param currentValues the values as json text by flat path, see {@link FlatJsonReader}
+   * @param introspect the introspect belonging to the template
+   */
+  FlatUnmarshalResult unmarshalWithResult(Map<String, String> currentValues, WebTemplate introspect) {
+
+    // the ordinals are the positions in the input of the consumed paths
+    Map<FlatPathDto, String> pathValues = new LinkedHashMap<>();
+    int ordinal = 0;
+    for (Map.Entry<String, String> entry : currentValues.entrySet()) {
+      FlatPathDto path = new FlatPathDto(entry.getKey());
+      path.setOrdinal(ordinal++);
+      pathValues.put(path, entry.getValue());
+    }
+
+    Composition generate = WebTemplateSkeletonFactory.of(introspect).build();
+
+    StdToCompositionWalker walker = new StdToCompositionWalker();
+    DefaultValues defaultValues = new DefaultValues(currentValues);
+    // put default for the defaults
+    if (!defaultValues.containsDefaultValue(DefaultValuePath.TIME)) {
+      defaultValues.addDefaultValue(DefaultValuePath.TIME, OffsetDateTime.now());
+    }
+    if (!defaultValues.containsDefaultValue(DefaultValuePath.SETTING)) {
+      defaultValues.addDefaultValue(DefaultValuePath.SETTING, Setting.OTHER_CARE);
+    }
+
+    String templateId = generate.getArchetypeDetails().getTemplateId().getValue();
+    ConsumedPaths consumedPaths = new ConsumedPaths(currentValues.keySet());
+    walker.walk(generate, pathValues, introspect, defaultValues, templateId, consumedPaths);
+
+    FlatUnmarshalResult result = new FlatUnmarshalResult(generate, consumedPaths);
+    if (strict && !result.isAllConsumed()) {
+      throw new UnmarshalException(
+          String.format("Could not consume Parts %s", result.getUnconsumed()));
+    }
+    return result;
+  }
+
+  /** @return the unconsumed paths of the last unmarshal with this instance */
   public Set<String> getUnconsumed() {
-    if (currentValues != null && consumedPath != null) {
-      HashSet<String> set = new HashSet<>(currentValues.keySet());
-      set.removeAll(consumedPath);
-      return set.stream().filter(p -> !p.startsWith("ctx")).collect(Collectors.toSet());
+    if (lastResult != null) {
+      return lastResult.getUnconsumed();
     } else {
       return Collections.emptySet();
     }
@@ -0,0 +1,52 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.flatencoding.std.umarshal;
+
+import com.nedap.archie.rm.composition.Composition;
+import java.util.Set;
+
+/** The result of a single unmarshal of flat json: the composition and the paths which were used. */
+public class FlatUnmarshalResult {
+
+  private final Composition composition;
+  private final ConsumedPaths consumedPaths;
+
+  FlatUnmarshalResult(Composition composition, ConsumedPaths consumedPaths) {
+    this.composition = composition;
+    this.consumedPaths = consumedPaths;
+  }
+
+  public Composition getComposition() {
+    return composition;
+  }
+
+  /** @return the flat paths of the input which were not used, without the ctx paths */
+  public Set<String> getUnconsumed() {
+    return consumedPaths.getUnconsumed();
+  }
+
+  /**
+   * @return {@code true} if all flat paths of the input except the ctx paths were used. Unlike
+   *     {@link #getUnconsumed()} no set is created.
+   */
+  public boolean isAllConsumed() {
+    return consumedPaths.isAllConsumed();
+  }
+}
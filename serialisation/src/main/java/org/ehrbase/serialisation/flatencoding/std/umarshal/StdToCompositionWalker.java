@@ -32,7 +32,6 @@ import org.ehrbase.serialisation.flatencoding.std.umarshal.postprocessor.Unmarsh
 import org.ehrbase.serialisation.flatencoding.std.umarshal.rmunmarshaller.DefaultRMUnmarshaller;
 import org.ehrbase.serialisation.flatencoding.std.umarshal.rmunmarshaller.RMUnmarshaller;
 import org.ehrbase.serialisation.walker.Context;
-import org.ehrbase.serialisation.walker.NodeId;
 import org.ehrbase.serialisation.walker.ToCompositionWalker;
 import org.ehrbase.serialisation.walker.defaultvalues.DefaultValues;
 import org.ehrbase.util.reflection.ReflectionHelper;
@@ -41,6 +40,7 @@ import org.ehrbase.webtemplate.model.WebTemplate;
 import org.ehrbase.webtemplate.model.WebTemplateInput;
 import org.ehrbase.webtemplate.model.WebTemplateNode;
 import org.ehrbase.webtemplate.path.flat.FlatPathDto;
+import org.ehrbase.webtemplate.path.flat.FlatPathIndex;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -51,11 +51,13 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
 
   private static final Map<Class<?>, RMUnmarshaller> UNMARSHALLER_MAP =
       ReflectionHelper.buildMap(RMUnmarshaller.class);
-  private static final Map<Class<?>, UnmarshalPostprocessor> POSTPROCESSOR_MAP =
-      ReflectionHelper.buildMap(UnmarshalPostprocessor.class);
+  private static final ClassValue<List<UnmarshalPostprocessor>> POSTPROCESSOR_MAP =
+      ReflectionHelper.buildHierarchyMap(UnmarshalPostprocessor.class);
+  private static final DefaultRMUnmarshaller DEFAULT_RM_UNMARSHALLER = new DefaultRMUnmarshaller();
 
 
   private Set<String> consumedPaths;
+  private FlatPathIndex<String> flatPathIndex;
 
   @Override
   public void walk(
@@ -65,7 +67,22 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
       DefaultValues defaultValues,
       String templateId
   ) {
-    consumedPaths = new HashSet<>();
+    walk(composition, object, webTemplate, defaultValues, templateId, new HashSet<>());
+  }
+
+  /**
+   * Same as {@link #walk(Composition, Map, WebTemplate, DefaultValues, String)}, the consumed paths
+   * are added to {@code consumedPaths}.
+   */
+  void walk(
+      Composition composition,
+      Map<FlatPathDto, String> object,
+      WebTemplate webTemplate,
+      DefaultValues defaultValues,
+      String templateId,
+      Set<String> consumedPaths) {
+    this.consumedPaths = consumedPaths;
+    flatPathIndex = new FlatPathIndex<>(object);
     super.walk(composition, object, webTemplate, defaultValues, templateId);
   }
 
@@ -80,21 +97,18 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
 
     Integer oldCount = null;
     if (count != null) {
-      oldCount = context.getCountMap().get(new NodeId(child));
-      context.getCountMap().put(new NodeId(child), count);
+      oldCount = context.getCountMap().get(context.getNodeId(child));
+      context.getCountMap().put(context.getNodeId(child), count);
     }
 
     String path = context.getFlatHelper().buildNamePath(context, true);
     context.getNodeDeque().remove();
-    context.getCountMap().remove(new NodeId(child));
+    context.getCountMap().remove(context.getNodeId(child));
     if (oldCount != null) {
-      context.getCountMap().put(new NodeId(child), oldCount);
+      context.getCountMap().put(context.getNodeId(child), oldCount);
     }
 
-    Map<FlatPathDto, String> subValues =
-        context.getObjectDeque().peek().entrySet().stream()
-            .filter(e -> e.getKey().startsWith(path))
-            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    Map<FlatPathDto, String> subValues = findStartsWith(context.getObjectDeque().peek(), path);
 
     if (isChoice && !isMatchingNode(subValues, context, child)) {
       subValues = Collections.emptyMap();
@@ -130,17 +144,15 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
     } else if (child.getRmType().equals("INTERVAL_EVENT")) {
       return subValues.entrySet().stream().anyMatch((e -> e.getKey().getLast().getName().equals("width")));
     } else if (visitChildren(child)) {
+      Set<FlatPathDto> covered = new HashSet<>();
       for (WebTemplateNode n : child.getChildren()) {
         context.getNodeDeque().push(n);
         String path = context.getFlatHelper().buildNamePath(context, true);
         context.getNodeDeque().remove();
-        subValues =
-            subValues.entrySet().stream()
-                .filter(e -> !e.getKey().startsWith(path))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        flatPathIndex.findStartsWith(path).forEach(e -> covered.add(e.getKey()));
       }
 
-      return subValues.isEmpty();
+      return covered.containsAll(subValues.keySet());
     } else if (child.getRmType().equals(DV_CODED_TEXT)) {
       return subValues.entrySet().stream().anyMatch(e -> "code".equals(e.getKey().getLast().getAttributeName()));
     } else if (child.getRmType().equals(DV_TEXT)) {
@@ -158,7 +170,7 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
     if (!visitChildren(context.getNodeDeque().peek()) && !context.getFlatHelper().skip(context)) {
       RMUnmarshaller rmUnmarshaller =
           UNMARSHALLER_MAP.getOrDefault(
-              context.getRmObjectDeque().peek().getClass(), new DefaultRMUnmarshaller());
+              context.getRmObjectDeque().peek().getClass(), DEFAULT_RM_UNMARSHALLER);
       String namePath = getNamePath(context);
       rmUnmarshaller.handle(
           namePath, context.getRmObjectDeque().peek(), context.getObjectDeque().peek(), context, consumedPaths);
@@ -171,17 +183,8 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
 
     super.postHandle(context);
 
-    List<UnmarshalPostprocessor<? super RMObject>> postprocessor = new ArrayList<>();
-
-    Class<?> currentClass = context.getRmObjectDeque().peek().getClass();
-
-    while (currentClass != null) {
-      if (POSTPROCESSOR_MAP.containsKey(currentClass)) {
-        postprocessor.add(POSTPROCESSOR_MAP.get(currentClass));
-      }
-
-      currentClass = currentClass.getSuperclass();
-    }
+    List<UnmarshalPostprocessor> postprocessor =
+        POSTPROCESSOR_MAP.get(context.getRmObjectDeque().peek().getClass());
     String namePath = getNamePath(context);
 
     if (Entry.class.isAssignableFrom(context.getRmObjectDeque().peek().getClass())) {
@@ -216,9 +219,9 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
 
   private String getNamePath(Context<Map<FlatPathDto, String>> context) {
     String namePath = context.getFlatHelper().buildNamePath(context, true);
-    String finalNamePath = namePath;
-    if (context.getObjectDeque().peek().entrySet().stream()
-        .noneMatch(e -> e.getKey().startsWith(finalNamePath))) {
+    Map<FlatPathDto, String> values = context.getObjectDeque().peek();
+    if (flatPathIndex.findStartsWith(namePath).stream()
+        .noneMatch(e -> values.containsKey(e.getKey()))) {
       namePath = context.getFlatHelper().buildNamePath(context, false);
     }
     return namePath;
@@ -281,7 +284,7 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
   @Override
   protected int calculateSize(Context<Map<FlatPathDto, String>> context, WebTemplateNode childNode) {
 
-    Integer oldCount = context.getCountMap().get(new NodeId(childNode));
+    Integer oldCount = context.getCountMap().get(context.getNodeId(childNode));
   //  context.getCountMap().remove(new NodeId((childNode)));
   //  context.getNodeDeque().push(childNode);
     String namePath = context.getFlatHelper().buildNamePath(context, true);
@@ -291,11 +294,10 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
   //    namePath = StringUtils.removeEnd( namePath,"/")+"/" + childNode.getId();
   //  }
 
-    String finalNamePath = namePath;
+    FlatPathDto namePathDto = new FlatPathDto(namePath);
     Integer count =
-        context.getObjectDeque().peek().keySet().stream()
-            .filter(s -> s.startsWith(finalNamePath))
-            .map(s -> FlatPathDto.removeStart(s, new FlatPathDto(finalNamePath)))
+        findStartsWith(context.getObjectDeque().peek(), namePath).keySet().stream()
+            .map(s -> FlatPathDto.removeStart(s, namePathDto))
             .filter(n -> n.getName().equals(childNode.getId()))
             .map(n -> Optional.ofNullable(n.getCount()).orElse(0))
             .sorted()
@@ -304,11 +306,25 @@ public class StdToCompositionWalker extends ToCompositionWalker<Map<FlatPathDto,
             .orElse(0);
    // context.getNodeDeque().poll();
     if (oldCount != null) {
-      context.getCountMap().put(new NodeId(childNode), oldCount);
+      context.getCountMap().put(context.getNodeId(childNode), oldCount);
     }
     return count;
   }
 
+  /**
+   * The entries of {@code values} which start with {@code path}, looked up in the index of the whole
+   * input.
+   */
+  private Map<FlatPathDto, String> findStartsWith(Map<FlatPathDto, String> values, String path) {
+    Map<FlatPathDto, String> subValues = new LinkedHashMap<>();
+    for (Map.Entry<FlatPathDto, String> e : flatPathIndex.findStartsWith(path)) {
+      if (values.containsKey(e.getKey())) {
+        subValues.put(e.getKey(), e.getValue());
+      }
+    }
+    return subValues;
+  }
+
   public Set<String> getConsumedPaths() {
     return consumedPaths;
   }
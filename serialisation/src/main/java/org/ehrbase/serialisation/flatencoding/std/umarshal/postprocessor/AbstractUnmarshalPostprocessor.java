@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 import org.apache.commons.lang3.StringUtils;
+import org.ehrbase.serialisation.flatencoding.std.umarshal.ConsumedPaths;
 import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
 import org.ehrbase.webtemplate.path.flat.FlatPathDto;
 import org.slf4j.Logger;
@@ -67,7 +68,7 @@ public abstract class AbstractUnmarshalPostprocessor<T extends RMObject>
       try {
         S value = OBJECT_MAPPER.readValue(jasonValue, clazz);
         consumer.accept(value);
-        consumedPaths.add(entry.getKey().format());
+        ConsumedPaths.add(consumedPaths, entry.getKey());
       } catch (JsonProcessingException e) {
         log.error(e.getMessage());
       }
@@ -23,6 +23,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nedap.archie.rm.RMObject;
 import org.apache.commons.lang3.StringUtils;
+import org.ehrbase.serialisation.flatencoding.std.umarshal.ConsumedPaths;
 import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
 import org.ehrbase.serialisation.walker.Context;
 import org.ehrbase.util.exception.SdkException;
@@ -118,7 +119,7 @@ public abstract class AbstractRMUnmarshaller<T extends RMObject> implements RMUn
             try {
                 S value = OBJECT_MAPPER.readValue(jasonValue, clazz);
                 consumer.accept(value);
-                consumedPaths.add(entry.getKey().format());
+                ConsumedPaths.add(consumedPaths, entry.getKey());
             } catch (JsonProcessingException e) {
                 log.error(e.getMessage());
             }
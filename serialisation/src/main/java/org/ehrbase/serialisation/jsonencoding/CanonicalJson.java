@@ -23,9 +23,14 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DatabindContext;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.jsontype.TypeResolverBuilder;
 import com.fasterxml.jackson.databind.jsontype.impl.ClassNameIdResolver;
 import com.fasterxml.jackson.databind.type.TypeFactory;
@@ -33,6 +38,7 @@ import com.nedap.archie.base.OpenEHRBase;
 import com.nedap.archie.paths.PathSegment;
 import com.nedap.archie.rm.RMObject;
 import com.nedap.archie.rm.archetyped.*;
+import com.nedap.archie.rm.composition.Composition;
 import com.nedap.archie.rm.datastructures.History;
 import com.nedap.archie.rm.support.identification.ArchetypeID;
 import com.nedap.archie.rm.support.identification.UIDBasedId;
@@ -40,45 +46,66 @@ import com.nedap.archie.rminfo.ArchieAOMInfoLookup;
 import com.nedap.archie.rminfo.ArchieRMInfoLookup;
 import com.nedap.archie.rminfo.ModelInfoLookup;
 import com.nedap.archie.rminfo.RMTypeInfo;
+import org.ehrbase.serialisation.CompositionHeader;
 import org.ehrbase.serialisation.RMDataFormat;
 import org.ehrbase.serialisation.exception.MarshalException;
 import org.ehrbase.serialisation.exception.UnmarshalException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 // test CJOpenEHRTypeNaming
 
 
 public class CanonicalJson implements RMDataFormat {
 
+    // Configured once, so the serializers and deserializers are cached across calls
+    private static final ObjectMapper CANONICAL_MAPPER = createCanonicalMapper();
+    private static final ObjectWriter CANONICAL_WRITER = CANONICAL_MAPPER.writer();
+    // Streams are owned by the caller
+    private static final ObjectWriter STREAM_WRITER =
+            CANONICAL_WRITER.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ObjectReader STREAM_READER =
+            CANONICAL_MAPPER.reader().without(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    /**
+     * Creates the mapper of the canonical format on a copy of {@link JacksonUtil#getObjectMapper()},
+     * so the shared mapper is not changed.
+     */
+    private static ObjectMapper createCanonicalMapper() {
+        ObjectMapper om = JacksonUtil.getObjectMapper().copy();
+
+        // Configuration to ignore methods that are not part of the RM
+        om.addMixIn(ArchetypeID.class, ObjectIdMixIn.class);
+        om.addMixIn(Locatable.class, LocatableMixIn.class);
+        om.addMixIn(Pathable.class, PathableMixIn.class);
+        om.addMixIn(UIDBasedId.class, UIDBasedIdMixIn.class);
+
+        // Global configuration to not include empty lists in the JSON
+        om.setSerializationInclusion(Include.NON_EMPTY);
+
+        // Avoid _type for final classes / concrete attributes with known type
+        TypeResolverBuilder typeResolverBuilder = new CJArchieTypeResolverBuilder()
+                .init(JsonTypeInfo.Id.NAME, new CJOpenEHRTypeNaming())
+                .typeProperty("_type")
+                .typeIdVisibility(true)
+                .inclusion(JsonTypeInfo.As.PROPERTY);
+        om.setDefaultTyping(typeResolverBuilder);
+
+        return om;
+    }
+
     @Override
     public String marshal(RMObject rmObject) {
         StringWriter stringWriter = new StringWriter();
 
         try {
-            // Configuration to ignore methods that are not part of the RM
-            ObjectMapper om = JacksonUtil.getObjectMapper();
-
-            om.addMixInAnnotations(ArchetypeID.class, ObjectIdMixIn.class);
-            om.addMixInAnnotations(Locatable.class, LocatableMixIn.class);
-            om.addMixInAnnotations(Pathable.class, PathableMixIn.class);
-            om.addMixInAnnotations(UIDBasedId.class, UIDBasedIdMixIn.class);
-
-            // Global configuration to not include empty lists in the JSON
-            om.setSerializationInclusion(Include.NON_EMPTY);
-
-            // Avoid _type for final classes / concrete attributes with known type
-            TypeResolverBuilder typeResolverBuilder = new CJArchieTypeResolverBuilder()
-                    .init(JsonTypeInfo.Id.NAME, new CJOpenEHRTypeNaming())
-                    .typeProperty("_type")
-                    .typeIdVisibility(true)
-                    .inclusion(JsonTypeInfo.As.PROPERTY);
-            om.setDefaultTyping(typeResolverBuilder);
-
-            om.writeValue(stringWriter, rmObject);
+            CANONICAL_WRITER.writeValue(stringWriter, rmObject);
         } catch (IOException e) {
             throw new MarshalException(e.getMessage(), e);
         }
@@ -89,12 +116,102 @@ public class CanonicalJson implements RMDataFormat {
     @Override
     public <T extends RMObject> T unmarshal(String value, Class<T> clazz) {
         try {
-            return JacksonUtil.getObjectMapper().readValue(value, clazz);
+            return CANONICAL_MAPPER.readValue(value, clazz);
+        } catch (IOException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+    }
+
+
+    @Override
+    public void marshal(RMObject rmObject, OutputStream out) {
+        try {
+            STREAM_WRITER.writeValue(out, rmObject);
+        } catch (IOException e) {
+            throw new MarshalException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public byte[] marshalToBytes(RMObject rmObject) {
+        try {
+            return CANONICAL_WRITER.writeValueAsBytes(rmObject);
+        } catch (IOException e) {
+            throw new MarshalException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public <T extends RMObject> T unmarshal(InputStream value, Class<T> clazz) {
+        try {
+            return STREAM_READER.forType(clazz).readValue(value);
         } catch (IOException e) {
             throw new UnmarshalException(e.getMessage(), e);
         }
     }
 
+    @Override
+    public <T extends RMObject> T unmarshal(byte[] value, Class<T> clazz) {
+        try {
+            return CANONICAL_MAPPER.readValue(value, clazz);
+        } catch (IOException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the {@link CompositionHeader#DEFAULT_ATTRIBUTES} of a composition, see {@link #unmarshalHeader(InputStream,
+     * Set)}.
+     */
+    public Composition unmarshalHeader(InputStream value) {
+        return unmarshalHeader(value, CompositionHeader.DEFAULT_ATTRIBUTES);
+    }
+
+    /**
+     * Reads only the given top level attributes of a composition. Other attributes, like the content, are skipped
+     * without being decoded and parsing stops once all given attributes are read.
+     *
+     * @param value      a composition in canonical json. It is not closed.
+     * @param attributes the RM names of single valued attributes of the composition
+     * @return a composition with only the given attributes set
+     */
+    public Composition unmarshalHeader(InputStream value, Set<String> attributes) {
+        CompositionHeader header = new CompositionHeader(attributes);
+        try (JsonParser parser = CANONICAL_MAPPER.getFactory().createParser(value)) {
+            // the stream belongs to the caller
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new UnmarshalException("Composition expected");
+            }
+            while (!header.isComplete() && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String attribute = parser.getCurrentName();
+                parser.nextToken();
+                Class<?> type = header.getType(attribute);
+                if (type != null) {
+                    header.set(attribute, STREAM_READER.forType(type).readValue(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+        return header.getComposition();
+    }
+
+    /**
+     * @return the writer of the canonical format. It can write to generators of other Jackson formats too.
+     */
+    static ObjectWriter getCanonicalWriter() {
+        return CANONICAL_WRITER;
+    }
+
+    /**
+     * @return the reader of the canonical format. It can read from parsers of other Jackson formats too.
+     */
+    static ObjectReader getCanonicalReader() {
+        return STREAM_READER;
+    }
 
     /**
      * TODO: pull into interface and therefore into XML and other formats too, since this should work regardless of format?!
@@ -105,7 +222,7 @@ public class CanonicalJson implements RMDataFormat {
      */
     public Map<String, Object> unmarshalToMap(String value) {
         try {
-            return JacksonUtil.getObjectMapper().readValue(value, Map.class);
+            return CANONICAL_MAPPER.readValue(value, Map.class);
         } catch (IOException e) {
             throw new UnmarshalException(e.getMessage(), e);
         }
@@ -212,7 +329,7 @@ public class CanonicalJson implements RMDataFormat {
     }
 
     // Test, inner class copied from com.nedap.archie.json.OpenEHRTypeNaming
-    public class CJOpenEHRTypeNaming extends ClassNameIdResolver {
+    public static class CJOpenEHRTypeNaming extends ClassNameIdResolver {
 
         private ModelInfoLookup rmInfoLookup = ArchieRMInfoLookup.getInstance();
         private ModelInfoLookup aomInfoLookup = ArchieAOMInfoLookup.getInstance();
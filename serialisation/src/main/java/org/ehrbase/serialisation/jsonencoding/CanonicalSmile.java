@@ -0,0 +1,104 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.jsonencoding;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.nedap.archie.rm.RMObject;
+import org.ehrbase.serialisation.RMDataFormat;
+import org.ehrbase.serialisation.exception.MarshalException;
+import org.ehrbase.serialisation.exception.UnmarshalException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+
+/**
+ * The canonical RM model of {@link CanonicalJson} in the binary Smile format, e.g. for transport between services or
+ * caches.
+ * <p>
+ * The same writer and reader as for {@link CanonicalJson} are used, so both formats can be converted into each other
+ * without loss. Property names and short string values, like the {@code _type} names, are written once per document
+ * and referenced afterwards.
+ * <p>
+ * The binary methods {@link #marshal(RMObject, OutputStream)}, {@link #marshalToBytes(RMObject)}, {@link
+ * #unmarshal(InputStream, Class)} and {@link #unmarshal(byte[], Class)} should be used. The String methods use
+ * Base64.
+ */
+public class CanonicalSmile implements RMDataFormat {
+
+    private static final SmileFactory SMILE_FACTORY = SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            // Streams are owned by the caller
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+            .build();
+
+    @Override
+    public String marshal(RMObject rmObject) {
+        return Base64.getEncoder().encodeToString(marshalToBytes(rmObject));
+    }
+
+    @Override
+    public <T extends RMObject> T unmarshal(String value, Class<T> clazz) {
+        return unmarshal(Base64.getDecoder().decode(value), clazz);
+    }
+
+    @Override
+    public void marshal(RMObject rmObject, OutputStream out) {
+        try (JsonGenerator generator = SMILE_FACTORY.createGenerator(out)) {
+            CanonicalJson.getCanonicalWriter().writeValue(generator, rmObject);
+        } catch (IOException e) {
+            throw new MarshalException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public byte[] marshalToBytes(RMObject rmObject) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshal(rmObject, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T extends RMObject> T unmarshal(InputStream value, Class<T> clazz) {
+        try (JsonParser parser = SMILE_FACTORY.createParser(value)) {
+            return CanonicalJson.getCanonicalReader().forType(clazz).readValue(parser);
+        } catch (IOException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public <T extends RMObject> T unmarshal(byte[] value, Class<T> clazz) {
+        try (JsonParser parser = SMILE_FACTORY.createParser(value)) {
+            return CanonicalJson.getCanonicalReader().forType(clazz).readValue(parser);
+        } catch (IOException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.ehrbase.webtemplate.model.WebTemplateNode;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 public class Context<T> {
@@ -38,12 +39,16 @@ public class Context<T> {
 
   private final Map<NodeId, Integer> countMap = new HashMap<>();
 
+  private final Map<WebTemplateNode, NodeId> nodeIdMap = new IdentityHashMap<>();
+
   private DefaultValues defaultValues;
 
   private final FlatHelper<T> flatHelper = new FlatHelper<>();
 
   private String templateId;
 
+  private WalkerPlan plan;
+
   public Deque<WebTemplateNode> getNodeDeque() {
     return nodeDeque;
   }
@@ -60,6 +65,14 @@ public class Context<T> {
     return countMap;
   }
 
+  /**
+   * Returns the {@link NodeId} of {@code node}. It is created once per node instance and walk, so
+   * using it as key in {@link #getCountMap()} does not recompute the path of the node.
+   */
+  public NodeId getNodeId(WebTemplateNode node) {
+    return nodeIdMap.computeIfAbsent(node, NodeId::new);
+  }
+
   public DefaultValues getDefaultValues() {
     return defaultValues;
   }
@@ -79,4 +92,32 @@ public class Context<T> {
   public void setTemplateId(String templateId) {
     this.templateId = templateId;
   }
+
+  /** @return the plan of the walked tree or {@code null} if the tree is not frozen */
+  public WalkerPlan getPlan() {
+    return plan;
+  }
+
+  public void setPlan(WalkerPlan plan) {
+    this.plan = plan;
+    flatHelper.setPlan(plan);
+  }
+
+  /**
+   * Creates the context of a sub walk of the current node: the node and RM object deques, the
+   * counts and the numbering of the name paths are copied, the object deque only contains {@code
+   * object}.
+   */
+  Context<T> fork(T object) {
+    Context<T> slice = new Context<>();
+    slice.setPlan(plan);
+    slice.setTemplateId(templateId);
+    slice.setDefaultValues(defaultValues);
+    slice.nodeDeque.addAll(nodeDeque);
+    slice.rmObjectDeque.addAll(rmObjectDeque);
+    slice.objectDeque.push(object);
+    slice.countMap.putAll(countMap);
+    slice.flatHelper.copyNumbering(flatHelper);
+    return slice;
+  }
 }
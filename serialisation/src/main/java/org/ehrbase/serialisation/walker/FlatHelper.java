@@ -14,72 +14,149 @@ public class FlatHelper<T> {
 
   private Map<String, Map<String, Integer>> pathCountMap = new HashMap<>();
 
+  private final List<Segment> segmentsWithCount = new ArrayList<>();
 
+  private final List<Segment> segmentsWithoutCount = new ArrayList<>();
+
+  private WalkerPlan plan;
+
+  void setPlan(WalkerPlan plan) {
+    this.plan = plan;
+  }
+
+  /** Continues the numbering of the name paths of {@code other}. */
+  void copyNumbering(FlatHelper<T> other) {
+    pathCountMap = new HashMap<>();
+    other.pathCountMap.forEach((k, v) -> pathCountMap.put(k, new HashMap<>(v)));
+  }
+
+  /**
+   * Builds the flat name path of the top of {@code context.getNodeDeque()}.
+   *
+   * <p>The segments of the path are kept in a stack per {@code addCount}, which is synchronised
+   * with the node deque on each call: segments are reused as long as node, skip and count are
+   * unchanged, so only the segments below the first change are built again.
+   */
   public String buildNamePath(Context<T> context, boolean addCount) {
-    StringBuilder sb = new StringBuilder();
-    StringBuilder fullPath = new StringBuilder();
-    WebTemplateNode node = null;
+    List<Segment> segments = addCount ? segmentsWithCount : segmentsWithoutCount;
+
+    Segment previous = null;
+    WebTemplateNode parent = null;
+    int depth = 0;
     for (Iterator<WebTemplateNode> iterator = context.getNodeDeque().descendingIterator();
         iterator.hasNext(); ) {
-      WebTemplateNode parent = node;
-      node = iterator.next();
+      WebTemplateNode node = iterator.next();
+
+      // skip is checked as well, since the normalisation of a not frozen tree can change it
       boolean skip = skip(node, parent);
-      fullPath.append(node.getId());
-
-      if (!skip) {
-        String key = sb + "/" + node.getId(false);
-        if (!pathCountMap.containsKey(key)) {
-          pathCountMap.put(key, new HashMap<>());
-        }
-
-        if (!pathCountMap.get(key).containsKey(fullPath.toString())) {
-          pathCountMap
-              .get(key)
-              .put(
-                  fullPath.toString(),
-                  pathCountMap.get(key).values().stream()
-                      .max(Comparator.naturalOrder())
-                      .map(i -> i + 1)
-                      .orElse(1));
-        }
-
-        Integer integer =
-            Optional.ofNullable(pathCountMap.get(key))
-                .map(m -> m.get(fullPath.toString()))
-                .orElse(1);
-        if (integer != 1) {
-          sb.append(node.getId(false) + integer);
-        } else {
-          sb.append(node.getId(false));
-        }
+      Segment segment = depth < segments.size() ? segments.get(depth) : null;
+      if (segment != null
+          && (segment.node != node
+              || segment.skip != skip
+              || !Objects.equals(segment.count, findCount(context, node, skip)))) {
+        segments.subList(depth, segments.size()).clear();
+        segment = null;
       }
-
-      if (!skip
-          && node.getMax() != 1
-          && context.getCountMap().containsKey(new NodeId(node))
-          && (addCount || context.getCountMap().get(new NodeId(node)) != 0)) {
-        sb.append(":").append(context.getCountMap().get(new NodeId(node)));
+      if (segment == null) {
+        segment = buildSegment(context, previous, node, skip, addCount);
+        segments.add(segment);
       }
-      if (!skip && iterator.hasNext()) {
-        sb.append("/");
+
+      previous = segment;
+      parent = node;
+      depth++;
+    }
+
+    if (previous == null) {
+      return "";
+    }
+    return StringUtils.removeEnd(previous.getLast(), "/");
+  }
+
+  private Segment buildSegment(
+      Context<T> context,
+      Segment previous,
+      WebTemplateNode node,
+      boolean skip,
+      boolean addCount) {
+    String prefix = previous != null ? previous.getInner() : "";
+    String fullPath = (previous != null ? previous.fullPath : "") + node.getId();
+
+    StringBuilder sb = new StringBuilder(prefix);
+    if (!skip) {
+      String id = node.getId(false);
+      int integer = register(prefix + "/" + id, fullPath);
+      sb.append(id);
+      if (integer != 1) {
+        sb.append(integer);
       }
+    }
 
-      if (!pathCountMap.containsKey(sb.toString())) {
-        pathCountMap.put(sb.toString(), new HashMap<>());
+    Integer count = findCount(context, node, skip);
+    if (count != null && (addCount || count != 0)) {
+      sb.append(":").append(count);
+    }
+
+    return new Segment(node, count, skip, fullPath, sb.toString());
+  }
+
+  private Integer findCount(Context<T> context, WebTemplateNode node, boolean skip) {
+    return !skip && node.getMax() != 1 ? context.getCountMap().get(context.getNodeId(node)) : null;
+  }
+
+  /**
+   * Numbers the different full paths which map to the same name path in order of their first
+   * occurrence.
+   */
+  private int register(String namePath, String fullPath) {
+    Map<String, Integer> numbers = pathCountMap.computeIfAbsent(namePath, k -> new HashMap<>());
+    Integer number = numbers.get(fullPath);
+    if (number == null) {
+      // numbers are assigned consecutively, so the next one is the size plus one
+      number = numbers.size() + 1;
+      numbers.put(fullPath, number);
+    }
+    return number;
+  }
+
+  /** The part of a name path which belongs to one node of the node deque. */
+  private class Segment {
+
+    private final WebTemplateNode node;
+    private final Integer count;
+    private final boolean skip;
+    private final String fullPath;
+    // the name path up to and including this node
+    private final String namePath;
+    private String inner;
+    private boolean lastRegistered;
+
+    private Segment(
+        WebTemplateNode node, Integer count, boolean skip, String fullPath, String namePath) {
+      this.node = node;
+      this.count = count;
+      this.skip = skip;
+      this.fullPath = fullPath;
+      this.namePath = namePath;
+    }
+
+    /** @return the name path if a child follows this node */
+    private String getInner() {
+      if (inner == null) {
+        inner = skip ? namePath : namePath + "/";
+        register(inner, fullPath);
       }
+      return inner;
+    }
 
-      if (!pathCountMap.get(sb.toString()).containsKey(fullPath.toString())) {
-        pathCountMap
-            .get(sb.toString())
-            .put(
-                fullPath.toString(),
-                pathCountMap.get(sb.toString()).values().stream()
-                    .max(Comparator.naturalOrder())
-                    .map(i -> i + 1)
-                    .orElse(1));
+    /** @return the name path if this node is the last one */
+    private String getLast() {
+      if (!lastRegistered) {
+        register(namePath, fullPath);
+        lastRegistered = true;
       }
+      return namePath;
     }
-    return StringUtils.removeEnd(sb.toString(), "/");
   }
 
   public boolean skip(Context<T> context) {
@@ -91,6 +168,14 @@ public class FlatHelper<T> {
   }
 
   public boolean skip(WebTemplateNode node, WebTemplateNode parent) {
+    WalkerPlan.NodePlan nodePlan = plan != null ? plan.get(node) : null;
+    if (nodePlan != null && nodePlan.getParent() == parent) {
+      return nodePlan.isSkip();
+    }
+    return computeSkip(node, parent);
+  }
+
+  boolean computeSkip(WebTemplateNode node, WebTemplateNode parent) {
 
     if (node.isArchetypeSlot()) {
       return true;
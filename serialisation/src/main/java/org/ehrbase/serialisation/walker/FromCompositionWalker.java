@@ -37,8 +37,36 @@ public abstract class FromCompositionWalker<T> extends Walker<T> {
       boolean isChoice,
       Integer count) {
 
+    return extractRMChild(
+        currentRM, new ItemAccessor(currentNode, childNode), childNode, isChoice, count);
+  }
+
+  /** Uses the {@link ItemAccessor} of the {@link WalkerPlan} if there is one for the edge. */
+  private Object extractRMChild(
+      Context<T> context,
+      RMObject currentRM,
+      WebTemplateNode currentNode,
+      WebTemplateNode childNode,
+      boolean isChoice,
+      Integer count) {
+
+    WalkerPlan.NodePlan nodePlan =
+        context.getPlan() != null ? context.getPlan().get(childNode) : null;
+    if (nodePlan != null && nodePlan.getParent() == currentNode) {
+      return extractRMChild(currentRM, nodePlan.getItemAccessor(), childNode, isChoice, count);
+    }
+    return extractRMChild(currentRM, currentNode, childNode, isChoice, count);
+  }
+
+  private Object extractRMChild(
+      RMObject currentRM,
+      ItemAccessor accessor,
+      WebTemplateNode childNode,
+      boolean isChoice,
+      Integer count) {
+
     ItemExtractor itemExtractor =
-        new ItemExtractor(currentRM, currentNode, childNode, isChoice && count == null).invoke();
+        new ItemExtractor(currentRM, accessor, childNode, isChoice && count == null).invoke();
 
     Object child = itemExtractor.getChild();
 
@@ -62,6 +90,7 @@ public abstract class FromCompositionWalker<T> extends Walker<T> {
 
     Object child =
         extractRMChild(
+            context,
             context.getRmObjectDeque().peek(),
             context.getNodeDeque().peek(),
             childNode,
@@ -86,6 +115,7 @@ public abstract class FromCompositionWalker<T> extends Walker<T> {
     currentChild =
         (RMObject)
             extractRMChild(
+                context,
                 context.getRmObjectDeque().peek(),
                 currentNode,
                 childNode,
@@ -0,0 +1,187 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.walker;
+
+import com.nedap.archie.rm.archetyped.Locatable;
+import com.nedap.archie.rminfo.RMAttributeInfo;
+import com.nedap.archie.rminfo.RMTypeInfo;
+import org.apache.commons.lang3.StringUtils;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+import org.ehrbase.webtemplate.parser.FlatPath;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The path from a {@link WebTemplateNode} to one of its children, parsed once.
+ *
+ * <p>If the path is a single RM attribute with at most an archetype node id predicate, which is
+ * the case for most edges, {@link #findItems(Object)} reads the attribute with a cached getter
+ * instead of running a path query.
+ */
+public class ItemAccessor {
+
+  private static final ClassValue<Map<String, Optional<MethodHandle>>> GETTER_MAP =
+      new ClassValue<>() {
+        @Override
+        protected Map<String, Optional<MethodHandle>> computeValue(Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  /** Returned by {@link #findItems(Object)} if the attribute is not known for the RM class. */
+  static final Object UNKNOWN = new Object();
+
+  private final String relativeAql;
+  private final String childAql;
+  private final String parentAql;
+  private final String nameValue;
+  private final String attributeName;
+  private final String archetypeNodeId;
+
+  public ItemAccessor(WebTemplateNode currentNode, WebTemplateNode childNode) {
+    relativeAql =
+        StringUtils.removeEnd(
+            StringUtils.removeStart(childNode.getAqlPath(), currentNode.getAqlPath()), "/");
+    FlatPath childPath = new FlatPath(relativeAql);
+    childAql = childPath.format(false);
+    String parent = StringUtils.removeEnd(childAql, childAql.substring(childAql.lastIndexOf("/")));
+    parentAql = StringUtils.isBlank(parent) ? "/" : parent;
+    nameValue = childPath.findOtherPredicate("name/value");
+
+    if (childPath.getChild() == null
+        && childPath.getAttributeName() == null
+        && StringUtils.isNotBlank(childPath.getName())
+        && parentAql.equals("/")) {
+      attributeName = childPath.getName();
+      archetypeNodeId = StringUtils.defaultIfBlank(childPath.getAtCode(), null);
+    } else {
+      attributeName = null;
+      archetypeNodeId = null;
+    }
+  }
+
+  /** @return the path relative to the parent node */
+  public String getRelativeAql() {
+    return relativeAql;
+  }
+
+  /** @return {@link #getRelativeAql()} without name predicates */
+  public String getChildAql() {
+    return childAql;
+  }
+
+  /** @return the path of the parent of the child relative to the parent node */
+  public String getParentAql() {
+    return parentAql;
+  }
+
+  /** @return the name/value predicate of the path or {@code null} */
+  public String getNameValue() {
+    return nameValue;
+  }
+
+  /** @return {@code true} if the child is read directly from a attribute of the parent RM object */
+  public boolean isDirect() {
+    return attributeName != null;
+  }
+
+  /** @return the attribute of the parent RM object if {@link #isDirect()}, otherwise {@code null} */
+  public String getAttributeName() {
+    return attributeName;
+  }
+
+  /**
+   * Same result as <code>itemsAtPath</code> and, if that returns no items, <code>itemAtPath</code>
+   * with {@link #getChildAql()}. Only valid if {@link #isDirect()}.
+   *
+   * @param currentRM the RM object of the parent node
+   * @return the items or {@link #UNKNOWN} if the attribute is not known for the class of {@code
+   *     currentRM}
+   * @throws RuntimeException thrown by the getter of the attribute
+   */
+  Object findItems(Object currentRM) {
+    Optional<MethodHandle> getter =
+        GETTER_MAP
+            .get(currentRM.getClass())
+            .computeIfAbsent(attributeName, a -> findGetter(currentRM.getClass(), a));
+    if (getter.isEmpty()) {
+      return UNKNOWN;
+    }
+
+    Object value;
+    try {
+      value = getter.get().invoke(currentRM);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      // RM getters declare no checked exceptions, leave such a getter to the path query
+      return UNKNOWN;
+    }
+
+    if (value == null) {
+      return null;
+    }
+    if (value instanceof Collection) {
+      if (archetypeNodeId == null) {
+        return ((Collection<?>) value).isEmpty() ? value : new ArrayList<>((Collection<?>) value);
+      }
+      List<Object> items = new ArrayList<>();
+      for (Object item : (Collection<?>) value) {
+        if (matches(item)) {
+          items.add(item);
+        }
+      }
+      return items.isEmpty() ? null : items;
+    }
+    if (archetypeNodeId == null || matches(value)) {
+      return Collections.singletonList(value);
+    }
+    return null;
+  }
+
+  private boolean matches(Object item) {
+    return item instanceof Locatable
+        && archetypeNodeId.equals(((Locatable) item).getArchetypeNodeId());
+  }
+
+  private static Optional<MethodHandle> findGetter(Class<?> type, String attributeName) {
+    RMTypeInfo typeInfo = Walker.ARCHIE_RM_INFO_LOOKUP.getTypeInfo(type);
+    if (typeInfo == null) {
+      return Optional.empty();
+    }
+    RMAttributeInfo attributeInfo = typeInfo.getAttributes().get(attributeName);
+    if (attributeInfo == null || attributeInfo.getGetMethod() == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(MethodHandles.publicLookup().unreflect(attributeInfo.getGetMethod()));
+    } catch (IllegalAccessException e) {
+      return Optional.empty();
+    }
+  }
+}
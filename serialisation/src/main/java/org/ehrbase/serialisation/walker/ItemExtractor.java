@@ -34,12 +34,10 @@ import java.util.stream.Collectors;
 
 public class ItemExtractor {
   private RMObject currentRM;
-  private WebTemplateNode currentNode;
   private WebTemplateNode childNode;
   private boolean isChoice;
-  private String relativeAql;
+  private ItemAccessor accessor;
   private Object child;
-  private String parentAql;
   private Object parent;
 
   public ItemExtractor(
@@ -47,14 +45,23 @@ public class ItemExtractor {
       WebTemplateNode currentNode,
       WebTemplateNode childNode,
       boolean isChoice) {
+    this(currentRM, new ItemAccessor(currentNode, childNode), childNode, isChoice);
+  }
+
+  /**
+   * @param accessor the path from the node of {@code currentRM} to {@code childNode}, e.g. cached
+   *     in the {@link WalkerPlan}
+   */
+  public ItemExtractor(
+      RMObject currentRM, ItemAccessor accessor, WebTemplateNode childNode, boolean isChoice) {
     this.currentRM = currentRM;
-    this.currentNode = currentNode;
+    this.accessor = accessor;
     this.childNode = childNode;
     this.isChoice = isChoice;
   }
 
   public FlatPath getRelativeAql() {
-    return new FlatPath(relativeAql);
+    return new FlatPath(accessor.getRelativeAql());
   }
 
   public Object getChild() {
@@ -62,28 +69,25 @@ public class ItemExtractor {
   }
 
   public ItemExtractor invoke() {
-    relativeAql =
-        StringUtils.removeEnd(
-            StringUtils.removeStart(childNode.getAqlPath(), currentNode.getAqlPath()), "/");
-    FlatPath childPath = new FlatPath(relativeAql);
-    parentAql =
-        StringUtils.removeEnd(
-            childPath.format(false),
-            childPath.format(false).substring(childPath.format(false).lastIndexOf("/")));
-    if (StringUtils.isBlank(parentAql)) {
-      parentAql = "/";
-    }
+    String relativeAql = accessor.getRelativeAql();
+    String childAql = accessor.getChildAql();
 
     if (currentRM instanceof Pathable) {
-      try {
-        child = ((Pathable) currentRM).itemsAtPath(childPath.format(false));
-        if (child == null || ((List) child).isEmpty()) {
-          child = ((Pathable) currentRM).itemAtPath(childPath.format(false));
+      Object items = accessor.isDirect() ? accessor.findItems(currentRM) : ItemAccessor.UNKNOWN;
+      if (items != ItemAccessor.UNKNOWN) {
+        child = items;
+        parent = currentRM;
+      } else {
+        try {
+          child = ((Pathable) currentRM).itemsAtPath(childAql);
+          if (child == null || ((List) child).isEmpty()) {
+            child = ((Pathable) currentRM).itemAtPath(childAql);
+          }
+        } catch (RuntimeException e) {
+          child = null;
         }
-      } catch (RuntimeException e) {
-        child = null;
+        parent = ((Pathable) currentRM).itemAtPath(accessor.getParentAql());
       }
-      parent = ((Pathable) currentRM).itemAtPath(parentAql);
     } else if (currentRM instanceof DvInterval) {
       if (relativeAql.contains("upper_included")) {
         child = new RmBoolean(((DvInterval<?>) currentRM).isUpperIncluded());
@@ -100,18 +104,15 @@ public class ItemExtractor {
           String.format("Can not extract from class %s", currentRM.getClass().getSimpleName()));
     }
 
-    if (StringUtils.isNotBlank(childPath.findOtherPredicate("name/value"))
+    String nameValue = accessor.getNameValue();
+    if (StringUtils.isNotBlank(nameValue)
         && child instanceof List
         && Locatable.class.isAssignableFrom(
             Walker.ARCHIE_RM_INFO_LOOKUP.getClass(childNode.getRmType()))) {
       child =
           ((List) child)
               .stream()
-                  .filter(
-                      c ->
-                          childPath
-                              .findOtherPredicate("name/value")
-                              .equals(((Locatable) c).getNameAsString()))
+                  .filter(c -> nameValue.equals(((Locatable) c).getNameAsString()))
                   .collect(Collectors.toList());
       // if name not found return null
       if (((List<?>) child).isEmpty()) {
@@ -151,7 +152,7 @@ public class ItemExtractor {
   }
 
   public FlatPath getParentAql() {
-    return new FlatPath(parentAql);
+    return new FlatPath(accessor.getParentAql());
   }
 
   public Object getParent() {
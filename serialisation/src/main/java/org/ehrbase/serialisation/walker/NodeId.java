@@ -9,11 +9,13 @@ public class NodeId {
   private final String aql;
   private final String name;
   private final String rmClass;
+  private final int hash;
 
   public NodeId(WebTemplateNode node) {
     this.aql = node.getAqlPath(true);
     this.name = node.getName();
     this.rmClass = node.getRmType();
+    this.hash = Objects.hash(aql, name, rmClass);
   }
 
   @Override
@@ -21,13 +23,14 @@ public class NodeId {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     NodeId nodeId = (NodeId) o;
-    return Objects.equals(aql, nodeId.aql)
+    return hash == nodeId.hash
+        && Objects.equals(aql, nodeId.aql)
         && Objects.equals(name, nodeId.name)
         && Objects.equals(rmClass, nodeId.rmClass);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(aql, name, rmClass);
+    return hash;
   }
 }
@@ -25,11 +25,15 @@ import com.nedap.archie.rm.RMObject;
 import com.nedap.archie.rm.archetyped.Archetyped;
 import com.nedap.archie.rm.archetyped.Locatable;
 import com.nedap.archie.rm.archetyped.TemplateId;
+import com.nedap.archie.rm.composition.Composition;
 import com.nedap.archie.rm.support.identification.ArchetypeID;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.ehrbase.building.webtemplateskeletnbuilder.WebTemplateSkeletonBuilder;
+import org.ehrbase.building.webtemplateskeletnbuilder.WebTemplateSkeletonFactory;
+import org.ehrbase.serialisation.walker.defaultvalues.DefaultValues;
 import org.ehrbase.serialisation.walker.defaultvalues.defaultinserter.DefaultValueInserter;
 import org.ehrbase.util.reflection.ReflectionHelper;
+import org.ehrbase.webtemplate.model.WebTemplate;
 import org.ehrbase.webtemplate.model.WebTemplateNode;
 import org.ehrbase.webtemplate.parser.NodeId;
 import org.slf4j.Logger;
@@ -41,11 +45,33 @@ public abstract class ToCompositionWalker<T> extends Walker<T> {
 
 
 
-  private static final Map<Class<?>, DefaultValueInserter> DEFAULT_VALUE_INSERTER_MAP =
-      ReflectionHelper.buildMap(DefaultValueInserter.class);
+  private static final ClassValue<List<DefaultValueInserter>> DEFAULT_VALUE_INSERTER_MAP =
+      ReflectionHelper.buildHierarchyMap(DefaultValueInserter.class);
 
   private final Logger log = LoggerFactory.getLogger(getClass());
 
+  private WebTemplateSkeletonFactory skeletonFactory;
+
+  @Override
+  public void walk(
+      Composition composition,
+      T object,
+      WebTemplate webTemplate,
+      DefaultValues defaultValues,
+      String templateId) {
+    try {
+      super.walk(composition, object, webTemplate, defaultValues, templateId);
+    } finally {
+      skeletonFactory = null;
+    }
+  }
+
+  @Override
+  protected void preWalk(WebTemplate webTemplate) {
+    // the factory must index the nodes which are walked, i.e. the normalised copy of a frozen template
+    skeletonFactory = WebTemplateSkeletonFactory.of(webTemplate);
+  }
+
   @Override
   protected void postHandle(Context<T> context) {
     RMObject currentRM = context.getRmObjectDeque().peek();
@@ -74,9 +100,14 @@ public abstract class ToCompositionWalker<T> extends Walker<T> {
       boolean isChoice,
       Integer count) {
 
-    Object newChild = WebTemplateSkeletonBuilder.build(childNode, false, Object.class);
-
-    WebTemplateSkeletonBuilder.insert(currentNode,currentRM,childNode, newChild);
+    Object newChild;
+    if (skeletonFactory != null) {
+      newChild = skeletonFactory.build(childNode, Object.class);
+      skeletonFactory.insert(currentNode, currentRM, childNode, newChild);
+    } else {
+      newChild = WebTemplateSkeletonBuilder.build(childNode, false, Object.class);
+      WebTemplateSkeletonBuilder.insert(currentNode, currentRM, childNode, newChild);
+    }
 
     return wrap(newChild);
   }
@@ -113,17 +144,8 @@ public abstract class ToCompositionWalker<T> extends Walker<T> {
   @Override
   protected void insertDefaults(Context<T> context) {
 
-    List<DefaultValueInserter<? super RMObject>> postprocessor = new ArrayList<>();
-
-    Class<?> currentClass = context.getRmObjectDeque().peek().getClass();
-
-    while (currentClass != null) {
-      if (DEFAULT_VALUE_INSERTER_MAP.containsKey(currentClass)) {
-        postprocessor.add(DEFAULT_VALUE_INSERTER_MAP.get(currentClass));
-      }
-
-      currentClass = currentClass.getSuperclass();
-    }
+    List<DefaultValueInserter> postprocessor =
+        DEFAULT_VALUE_INSERTER_MAP.get(context.getRmObjectDeque().peek().getClass());
 
     postprocessor.forEach(
         p -> p.insert(context.getRmObjectDeque().peek(), context.getDefaultValues()));
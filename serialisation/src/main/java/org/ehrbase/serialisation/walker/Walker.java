@@ -38,6 +38,8 @@ import org.ehrbase.webtemplate.model.WebTemplateInput;
 import org.ehrbase.webtemplate.model.WebTemplateNode;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 import static org.ehrbase.util.rmconstants.RmConstants.*;
@@ -46,21 +48,75 @@ public abstract class Walker<T> {
 
   public static final ArchieRMInfoLookup ARCHIE_RM_INFO_LOOKUP = ArchieRMInfoLookup.getInstance();
 
+  private ForkJoinPool parallelPool;
+
+  /**
+   * Walks the multi valued children of the root, e.g. the content of a composition, as independent
+   * sub walks on {@code parallelPool}. Only used for frozen templates and walkers which support
+   * {@link #forkObject(Object)}. The result is the same as the one of a sequential walk.
+   *
+   * @param parallelPool the pool or {@code null} to walk sequentially
+   */
+  public void setParallelPool(ForkJoinPool parallelPool) {
+    this.parallelPool = parallelPool;
+  }
 
   public void walk(
       Composition composition, T object, WebTemplate webTemplate, DefaultValues defaultValues, String templateId) {
 
-    walk(composition, object, webTemplate.getTree(), defaultValues, templateId);
+    WalkerPlan plan = null;
+    if (webTemplate.isFrozen()) {
+      WebTemplate normalised = webTemplate;
+      if (normalised.getNormalisedFor() != getClass()) {
+        // the tree can not be normalised in place, so walk a normalised copy kept with the template
+        normalised =
+            webTemplate.computeDerivedIfAbsent(
+                ImmutablePair.of(WebTemplate.class, getClass()), this::freeze);
+      }
+      plan =
+          normalised.computeDerivedIfAbsent(
+              getClass(), w -> WalkerPlan.compile(w.getTree(), this));
+      webTemplate = normalised;
+    }
+    preWalk(webTemplate);
+    walk(composition, object, webTemplate.getTree(), defaultValues, templateId, plan);
   }
 
+  /**
+   * Called by {@link #walk(Composition, Object, WebTemplate, DefaultValues, String)} before the tree
+   * is walked.
+   *
+   * @param webTemplate the template whose tree is walked. For a frozen template this is the copy
+   *     normalised for this walker, which is not the template passed to walk.
+   */
+  protected void preWalk(WebTemplate webTemplate) {}
+
   public void walk(RMObject composition, T object, WebTemplateNode root, String templateId) {
     walk(composition, object, root, null, templateId);
   }
 
+  /**
+   * Walks the tree below {@code root}. A frozen {@code root} which was not normalised for this
+   * walker is copied first, since the tree is normalised during the walk.
+   */
   public void walk(
       RMObject composition, T object, WebTemplateNode root, DefaultValues defaultValues, String templateId) {
+    if (root.isFrozen() && root.getNormalisedFor() != getClass()) {
+      root = new WebTemplateNode(root);
+    }
+    walk(composition, object, root, defaultValues, templateId, null);
+  }
+
+  private void walk(
+      RMObject composition,
+      T object,
+      WebTemplateNode root,
+      DefaultValues defaultValues,
+      String templateId,
+      WalkerPlan plan) {
 
     Context<T> context = new Context<>();
+    context.setPlan(plan);
 
     context.getNodeDeque().push(root);
     context.getObjectDeque().push(object);
@@ -82,49 +138,24 @@ public abstract class Walker<T> {
     WebTemplateNode currentNode = context.getNodeDeque().peek();
 
 
-    if (visitChildren(currentNode)) {
+    WalkerPlan.NodePlan nodePlan =
+        context.getPlan() != null ? context.getPlan().get(currentNode) : null;
 
-      if(ACTION.equals(currentNode.getRmType())){
-      List<WebTemplateNode> ismTransitionList =
-              currentNode.getChildren().stream()
-                      .filter(n -> ISM_TRANSITION.equals(n.getRmType()))
-                      .collect(Collectors.toList());
-        if (!ismTransitionList.isEmpty()) {
-          currentNode.getChildren().removeAll(ismTransitionList);
-          currentNode.getChildren().add(ismTransitionList.get(0));
-        }
-      }
-
-      handleDVText(currentNode);
-
-      Map<String, List<WebTemplateNode>> choices = currentNode.getChoicesInChildren();
-      List<WebTemplateNode> children = new ArrayList<>(currentNode.getChildren());
-
-      if (children.stream().anyMatch(n -> n.getRmType().equals("EVENT"))) {
-        WebTemplateNode event =
-            children.stream().filter(n -> n.getRmType().equals("EVENT")).findAny().orElseThrow();
-
-        EventHelper eventHelper = new EventHelper(event).invoke();
-        WebTemplateNode pointEvent = eventHelper.getPointEvent();
-        WebTemplateNode intervalEvent = eventHelper.getIntervalEvent();
-        choices.put(intervalEvent.getAqlPath(), List.of(intervalEvent, pointEvent));
-        children.add(intervalEvent);
-        children.add(pointEvent);
-        children.remove(event);
-      }
+    if (nodePlan != null ? nodePlan.isVisitChildren() : visitChildren(currentNode)) {
 
-      Map<String, List<WebTemplateNode>> map = new LinkedHashMap<>();
-      for (WebTemplateNode webTemplateNode : children) {
-        map.computeIfAbsent(webTemplateNode.getAqlPath(), k -> new ArrayList<>())
-            .add(webTemplateNode);
-      }
-      Map<String, List<WebTemplateNode>> result = new LinkedHashMap<>();
-      for (Map.Entry<String, List<WebTemplateNode>> stringListEntry : map.entrySet()) {
-        if (result.put(stringListEntry.getKey(), stringListEntry.getValue()) != null) {
-          throw new IllegalStateException("Duplicate key");
+      Map<String, List<WebTemplateNode>> choices;
+      Collection<List<WebTemplateNode>> childChoices;
+      if (nodePlan != null) {
+        choices = nodePlan.getChoices();
+        childChoices = nodePlan.getChildChoices();
+      } else {
+        // a frozen tree of this walker has already been normalised by freeze(WebTemplate)
+        if (currentNode.getNormalisedFor() != getClass()) {
+          normalise(currentNode);
         }
+        choices = currentNode.getChoicesInChildren();
+        childChoices = groupChildren(currentNode.getChildren(), choices);
       }
-      Collection<List<WebTemplateNode>> childChoices = result.values();
 
       for (List<WebTemplateNode> choice : childChoices) {
 
@@ -158,19 +189,11 @@ public abstract class Walker<T> {
             }
           }
 
-          for (int i = 0; i < Math.min(size, pairs.size()); i++) {
-            RMObject currentChild = null;
-            T childObject = null;
-            childObject = pairs.get(i).getLeft();
-            currentChild = pairs.get(i).getMiddle();
-            WebTemplateNode childNode = pairs.get(i).getRight();
-            if (currentChild != null && childObject != null) {
-              context.getNodeDeque().push(childNode);
-              context.getObjectDeque().push(childObject);
-              context.getRmObjectDeque().push(currentChild);
-              context.getCountMap().put(new NodeId(childNode), i);
-              handle(context);
-            }
+          int count = Math.min(size, pairs.size());
+          if (isParallel(context, count)) {
+            walkParallel(context, choices, pairs.subList(0, count));
+          } else {
+            walkSequential(context, pairs.subList(0, count));
           }
         }
       }
@@ -182,6 +205,145 @@ public abstract class Walker<T> {
     context.getObjectDeque().remove();
   }
 
+  private boolean isParallel(Context<T> context, int count) {
+    // the tree of a walk without plan is normalised while it is walked
+    return parallelPool != null
+        && context.getPlan() != null
+        && context.getNodeDeque().size() == 1
+        && count > 1;
+  }
+
+  /**
+   * Walks each of {@code pairs} in its own {@link Context} on the parallel pool and joins the
+   * results in order.
+   */
+  private void walkParallel(
+      Context<T> context,
+      Map<String, List<WebTemplateNode>> choices,
+      List<Triple<T, RMObject, WebTemplateNode>> pairs) {
+    T object = context.getObjectDeque().peek();
+    List<T> forked = new ArrayList<>(pairs.size());
+    for (int i = 0; i < pairs.size(); i++) {
+      forked.add(forkObject(object));
+    }
+    if (forked.contains(null)) {
+      walkSequential(context, pairs);
+      return;
+    }
+
+    // the name paths below the children are disjoint, only the numbering of the children depends
+    // on the order and is therefore done before the sub walks
+    for (int i = 0; i < pairs.size(); i++) {
+      WebTemplateNode childNode = pairs.get(i).getRight();
+      context.getNodeDeque().push(childNode);
+      context.getCountMap().put(context.getNodeId(childNode), i);
+      context.getFlatHelper().buildNamePath(context, true);
+      context.getNodeDeque().remove();
+    }
+
+    List<ForkJoinTask<T>> tasks = new ArrayList<>(pairs.size());
+    for (int i = 0; i < pairs.size(); i++) {
+      Context<T> slice = context.fork(forked.get(i));
+      WebTemplateNode childNode = pairs.get(i).getRight();
+      RMObject child = pairs.get(i).getMiddle();
+      boolean isChoice = choices.containsKey(childNode.getAqlPath());
+      int count = i;
+      tasks.add(
+          parallelPool.submit(
+              () -> {
+                T childObject = extract(slice, childNode, isChoice, count);
+                if (childObject != null) {
+                  slice.getNodeDeque().push(childNode);
+                  slice.getObjectDeque().push(childObject);
+                  slice.getRmObjectDeque().push(child);
+                  slice.getCountMap().put(slice.getNodeId(childNode), count);
+                  handle(slice);
+                }
+                return slice.getObjectDeque().peek();
+              }));
+    }
+
+    for (ForkJoinTask<T> task : tasks) {
+      joinObject(object, task.join());
+    }
+  }
+
+  private void walkSequential(
+      Context<T> context, List<Triple<T, RMObject, WebTemplateNode>> pairs) {
+    for (int i = 0; i < pairs.size(); i++) {
+      context.getNodeDeque().push(pairs.get(i).getRight());
+      context.getObjectDeque().push(pairs.get(i).getLeft());
+      context.getRmObjectDeque().push(pairs.get(i).getMiddle());
+      context.getCountMap().put(context.getNodeId(pairs.get(i).getRight()), i);
+      handle(context);
+    }
+  }
+
+  /**
+   * Groups {@code children} by aql path in walk order. An EVENT is replaced by a POINT_EVENT and an
+   * INTERVAL_EVENT, which are added as choice to {@code choices}.
+   */
+  static Collection<List<WebTemplateNode>> groupChildren(
+      List<WebTemplateNode> currentChildren, Map<String, List<WebTemplateNode>> choices) {
+    List<WebTemplateNode> children = new ArrayList<>(currentChildren);
+
+    if (children.stream().anyMatch(n -> n.getRmType().equals("EVENT"))) {
+      WebTemplateNode event =
+          children.stream().filter(n -> n.getRmType().equals("EVENT")).findAny().orElseThrow();
+
+      EventHelper eventHelper = new EventHelper(event).invoke();
+      WebTemplateNode pointEvent = eventHelper.getPointEvent();
+      WebTemplateNode intervalEvent = eventHelper.getIntervalEvent();
+      choices.put(intervalEvent.getAqlPath(), List.of(intervalEvent, pointEvent));
+      children.add(intervalEvent);
+      children.add(pointEvent);
+      children.remove(event);
+    }
+
+    Map<String, List<WebTemplateNode>> result = new LinkedHashMap<>();
+    for (WebTemplateNode webTemplateNode : children) {
+      result.computeIfAbsent(webTemplateNode.getAqlPath(), k -> new ArrayList<>())
+          .add(webTemplateNode);
+    }
+    return result.values();
+  }
+
+  /**
+   * Returns a frozen copy of {@code webTemplate} with the tree normalisations of this walker already
+   * applied. The copy is read-only and can be walked concurrently by walkers of the same class, which
+   * then skip the per walk normalisation. Walkers of other classes walk a normalised copy of it.
+   *
+   * @param webTemplate the WebTemplate to freeze. It is not modified.
+   * @return the frozen copy
+   */
+  public WebTemplate freeze(WebTemplate webTemplate) {
+    WebTemplate frozen = new WebTemplate(webTemplate);
+    normaliseTree(frozen.getTree());
+    return frozen.freeze(getClass());
+  }
+
+  private void normaliseTree(WebTemplateNode node) {
+    if (visitChildren(node)) {
+      normalise(node);
+      node.getChildren().forEach(this::normaliseTree);
+    }
+  }
+
+  protected void normalise(WebTemplateNode currentNode) {
+    if (ACTION.equals(currentNode.getRmType())) {
+      List<WebTemplateNode> ismTransitionList =
+          currentNode.getChildren().stream()
+              .filter(n -> ISM_TRANSITION.equals(n.getRmType()))
+              .collect(Collectors.toList());
+      if (!ismTransitionList.isEmpty()) {
+        currentNode.getChildren().removeAll(ismTransitionList);
+        currentNode.getChildren().add(ismTransitionList.get(0));
+      }
+    }
+
+    handleDVText(currentNode);
+  }
+
   protected void handleDVText(
       WebTemplateNode currentNode
      ) {
@@ -239,6 +401,19 @@ public abstract class Walker<T> {
 
   protected abstract void preHandle(Context<T> context);
 
+  /**
+   * Creates an empty object of the same kind as {@code object}, into which a parallel sub walk
+   * writes.
+   *
+   * @return the new object or {@code null} if this walker does not support parallel walks
+   */
+  protected T forkObject(T object) {
+    return null;
+  }
+
+  /** Adds the result of a parallel sub walk created by {@link #forkObject(Object)} to {@code object}. */
+  protected void joinObject(T object, T forked) {}
+
   protected abstract void postHandle(Context<T> context);
 
   protected void insertDefaults(Context<T> context) {}
@@ -314,6 +489,12 @@ public abstract class Walker<T> {
       sampleCount.setAqlPath(event.getAqlPath() + "/sample_count");
       intervalEvent.getChildren().add(sampleCount);
 
+      // copies of a normalised tree are normalised as well
+      if (event.isFrozen()) {
+        pointEvent.freeze(event.getNormalisedFor());
+        intervalEvent.freeze(event.getNormalisedFor());
+      }
+
       return this;
     }
   }
@@ -0,0 +1,158 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+package org.ehrbase.serialisation.walker;
+
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+
+import java.util.*;
+
+/**
+ * The template static decisions of a {@link Walker} for every node of a frozen tree: whether its
+ * children are visited, how they are grouped into choices (with EVENT split into POINT_EVENT and
+ * INTERVAL_EVENT), whether the node is skipped in flat paths and the path from its parent.
+ *
+ * <p>A plan is compiled once per frozen {@link org.ehrbase.webtemplate.model.WebTemplate} and
+ * walker type, so a walk only does the work which depends on the composition. Which handler is
+ * used for a node depends on the RM class of the data and is therefore not part of the plan.
+ */
+public class WalkerPlan {
+
+  private final Map<WebTemplateNode, NodePlan> nodePlans = new IdentityHashMap<>();
+
+  private WalkerPlan() {}
+
+  /**
+   * @param root the root of a frozen, and therefore already normalised, tree
+   * @param walker the walker whose decisions are recorded
+   * @return the plan of {@code root}
+   */
+  public static WalkerPlan compile(WebTemplateNode root, Walker<?> walker) {
+    WalkerPlan plan = new WalkerPlan();
+    FlatHelper<?> flatHelper = new FlatHelper<>();
+    plan.compile(root, null, walker, flatHelper);
+    return plan;
+  }
+
+  private void compile(
+      WebTemplateNode node, WebTemplateNode parent, Walker<?> walker, FlatHelper<?> flatHelper) {
+    if (nodePlans.containsKey(node)) {
+      return;
+    }
+
+    boolean visitChildren = walker.visitChildren(node);
+    NodePlan nodePlan;
+    if (visitChildren) {
+      Map<String, List<WebTemplateNode>> choices = node.getChoicesInChildren();
+      Collection<List<WebTemplateNode>> childChoices =
+          Walker.groupChildren(node.getChildren(), choices);
+      nodePlan =
+          new NodePlan(
+              node,
+              parent,
+              true,
+              Collections.unmodifiableMap(choices),
+              Collections.unmodifiableList(new ArrayList<>(childChoices)),
+              flatHelper.computeSkip(node, parent));
+      nodePlans.put(node, nodePlan);
+      childChoices.forEach(c -> c.forEach(n -> compile(n, node, walker, flatHelper)));
+    } else {
+      nodePlan =
+          new NodePlan(
+              node,
+              parent,
+              false,
+              Collections.emptyMap(),
+              Collections.emptyList(),
+              flatHelper.computeSkip(node, parent));
+      nodePlans.put(node, nodePlan);
+    }
+  }
+
+  /**
+   * @param node a node of the compiled tree
+   * @return the plan of {@code node} or {@code null} if it is not part of the compiled tree
+   */
+  public NodePlan get(WebTemplateNode node) {
+    return nodePlans.get(node);
+  }
+
+  public static class NodePlan {
+
+    private final WebTemplateNode node;
+    private final WebTemplateNode parent;
+    private final boolean visitChildren;
+    private final Map<String, List<WebTemplateNode>> choices;
+    private final List<List<WebTemplateNode>> childChoices;
+    private final boolean skip;
+    // built on first use, only the walkers reading from RM objects need it
+    private volatile ItemAccessor itemAccessor;
+
+    private NodePlan(
+        WebTemplateNode node,
+        WebTemplateNode parent,
+        boolean visitChildren,
+        Map<String, List<WebTemplateNode>> choices,
+        List<List<WebTemplateNode>> childChoices,
+        boolean skip) {
+      this.node = node;
+      this.parent = parent;
+      this.visitChildren = visitChildren;
+      this.choices = choices;
+      this.childChoices = childChoices;
+      this.skip = skip;
+    }
+
+    /** @return the parent the plan was compiled for */
+    public WebTemplateNode getParent() {
+      return parent;
+    }
+
+    public boolean isVisitChildren() {
+      return visitChildren;
+    }
+
+    /** @return the children by aql path which have more than one node for the path */
+    public Map<String, List<WebTemplateNode>> getChoices() {
+      return choices;
+    }
+
+    /** @return all children grouped by aql path in walk order */
+    public List<List<WebTemplateNode>> getChildChoices() {
+      return childChoices;
+    }
+
+    /** @return {@link FlatHelper#skip(WebTemplateNode, WebTemplateNode)} for the node and parent */
+    public boolean isSkip() {
+      return skip;
+    }
+
+    /** @return the path from the parent to the node or {@code null} for the root */
+    public ItemAccessor getItemAccessor() {
+      if (parent == null) {
+        return null;
+      }
+      ItemAccessor accessor = itemAccessor;
+      if (accessor == null) {
+        accessor = new ItemAccessor(parent, node);
+        itemAccessor = accessor;
+      }
+      return accessor;
+    }
+  }
+}
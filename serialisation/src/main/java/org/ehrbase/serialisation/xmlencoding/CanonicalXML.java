@@ -19,13 +19,13 @@
 package org.ehrbase.serialisation.xmlencoding;
 
 import com.nedap.archie.rm.RMObject;
+import com.nedap.archie.rm.composition.Composition;
 import com.nedap.archie.xml.JAXBUtil;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.ehrbase.serialisation.CompositionHeader;
 import org.ehrbase.serialisation.RMDataFormat;
 import org.ehrbase.serialisation.exception.UnmarshalException;
 import org.ehrbase.serialisation.util.SnakeCase;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.*;
 import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.XMLFilterImpl;
@@ -33,27 +33,55 @@ import org.xml.sax.helpers.XMLFilterImpl;
 import javax.xml.XMLConstants;
 import javax.xml.bind.*;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
 import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 public class CanonicalXML implements RMDataFormat {
 
     // should be http://schemas.openehr.org/v1 but this does not work with archie.
     private static final String NAMESPACE = "";
 
+    // Marshallers, unmarshallers, SAX parsers and transformer factories are not thread safe, but can be reused by
+    // the thread which created them.
+    private static final ThreadLocal<Marshaller> MARSHALLER = ThreadLocal.withInitial(CanonicalXML::newMarshaller);
+    private static final ThreadLocal<Unmarshaller> UNMARSHALLER =
+            ThreadLocal.withInitial(CanonicalXML::newUnmarshaller);
+    private static final ThreadLocal<XMLReader> XML_READER = ThreadLocal.withInitial(CanonicalXML::newXmlReader);
+    private static final ThreadLocal<SAXTransformerFactory> TRANSFORMER_FACTORY =
+            ThreadLocal.withInitial(CanonicalXML::newTransformerFactory);
+    private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY =
+            ThreadLocal.withInitial(CanonicalXML::newXmlInputFactory);
+
     @Override
     public String marshal(RMObject rmObject) {
 
@@ -64,16 +92,7 @@ public class CanonicalXML implements RMDataFormat {
 
         StringWriter stringWriter = new StringWriter();
         try {
-            Marshaller marshaller = JAXBUtil.getArchieJAXBContext().createMarshaller();
-            marshaller.setProperty("jaxb.fragment", !withHeader);
-            if (rmObject.getClass().getAnnotation(XmlRootElement.class) == null) {
-                QName qName = new QName(null, new SnakeCase(rmObject.getClass().getSimpleName()).camelToSnake());
-                JAXBElement<RMObject> root = new JAXBElement<>(qName, RMObject.class, rmObject);
-                marshaller.marshal(root, stringWriter);
-            } else {
-
-                marshaller.marshal(rmObject, stringWriter);
-            }
+            createMarshaller(withHeader).marshal(toRoot(rmObject), stringWriter);
         } catch (JAXBException e) {
             throw new org.ehrbase.serialisation.exception.MarshalException(e.getMessage(), e);
         }
@@ -81,30 +100,105 @@ public class CanonicalXML implements RMDataFormat {
         return stringWriter.toString();
     }
 
+    @Override
+    public void marshal(RMObject rmObject, OutputStream out) {
+        try {
+            createMarshaller(true).marshal(toRoot(rmObject), out);
+        } catch (JAXBException e) {
+            throw new org.ehrbase.serialisation.exception.MarshalException(e.getMessage(), e);
+        }
+    }
 
-    public String marshalInline(RMObject rmObject, QName qName) {
+    @Override
+    public byte[] marshalToBytes(RMObject rmObject) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshal(rmObject, out);
+        return out.toByteArray();
+    }
 
+    private static Marshaller createMarshaller(Boolean withHeader) throws JAXBException {
+        Marshaller marshaller = MARSHALLER.get();
+        marshaller.setProperty("jaxb.fragment", !withHeader);
+        return marshaller;
+    }
 
+    private static Marshaller newMarshaller() {
         try {
-            JAXBElement<RMObject> root = new JAXBElement<>(qName, RMObject.class, rmObject);
+            return JAXBUtil.getArchieJAXBContext().createMarshaller();
+        } catch (JAXBException e) {
+            throw new org.ehrbase.serialisation.exception.MarshalException(e.getMessage(), e);
+        }
+    }
+
+    private static Unmarshaller newUnmarshaller() {
+        try {
+            return JAXBUtil.getArchieJAXBContext().createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+    }
+
+    private static XMLReader newXmlReader() {
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            // disable external entities
+            spf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
+            spf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            spf.setNamespaceAware(true);
+            spf.setValidating(false);
+            return spf.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+    }
+
+    private static XMLInputFactory newXmlInputFactory() {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        // disable external entities
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return xmlInputFactory;
+    }
+
+    private static SAXTransformerFactory newTransformerFactory() {
+        SAXTransformerFactory transformerFactory = (SAXTransformerFactory) TransformerFactory.newInstance();
+        transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+        return transformerFactory;
+    }
 
-            Marshaller marshaller = JAXBUtil.getArchieJAXBContext().createMarshaller();
+    /**
+     * @return {@code rmObject} wrapped in an element named after its class if it is no root element itself
+     */
+    private static Object toRoot(RMObject rmObject) {
+        if (rmObject.getClass().getAnnotation(XmlRootElement.class) == null) {
+            QName qName = new QName(null, new SnakeCase(rmObject.getClass().getSimpleName()).camelToSnake());
+            return new JAXBElement<>(qName, RMObject.class, rmObject);
+        } else {
+            return rmObject;
+        }
+    }
 
-            DOMResult res = new DOMResult();
-            marshaller.marshal(root, res);
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-            transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
 
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            Node rootNode = res.getNode().getFirstChild();
-            NodeList childNodes = rootNode.getChildNodes();
+    /**
+     * Marshals the content of {@code rmObject} as element {@code qName} without the element itself, e.g. to embed it
+     * in another document. The events of the marshaller are written directly to the result, which is the same as
+     * serialising each child of the element on its own.
+     */
+    public String marshalInline(RMObject rmObject, QName qName) {
+
+        try {
+            JAXBElement<RMObject> root = new JAXBElement<>(qName, RMObject.class, rmObject);
 
+            TransformerHandler transformerHandler = TRANSFORMER_FACTORY.get().newTransformerHandler();
+            transformerHandler.getTransformer().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
             StringWriter stringWriter = new StringWriter();
-            for (int i = 0; i < childNodes.getLength(); i++) {
-                transformer.transform(new DOMSource(childNodes.item(i)), new StreamResult(stringWriter));
-            }
+            transformerHandler.setResult(new StreamResult(stringWriter));
+
+            InlineFilter filter = new InlineFilter();
+            filter.setContentHandler(transformerHandler);
+            createMarshaller(true).marshal(root, filter);
+
             return stringWriter.toString();
 
         } catch (JAXBException | TransformerException e) {
@@ -114,31 +208,239 @@ public class CanonicalXML implements RMDataFormat {
 
     @Override
     public <T extends RMObject> T unmarshal(String value, Class<T> clazz) {
+        return unmarshal(new InputSource(new StringReader(value)), clazz);
+    }
+
+    @Override
+    public <T extends RMObject> T unmarshal(InputStream value, Class<T> clazz) {
+        // the SAX parser closes its input, but the stream is owned by the caller
+        return unmarshal(new InputSource(new CloseShieldInputStream(value)), clazz);
+    }
+
+    @Override
+    public <T extends RMObject> T unmarshal(byte[] value, Class<T> clazz) {
+        return unmarshal(new InputSource(new ByteArrayInputStream(value)), clazz);
+    }
+
+    private <T extends RMObject> T unmarshal(InputSource value, Class<T> clazz) {
         T composition;
         try {
-            Unmarshaller unmarshaller = JAXBUtil.getArchieJAXBContext().createUnmarshaller();
+            Unmarshaller unmarshaller = UNMARSHALLER.get();
             // Set the parent XMLReader on the XMLFilter
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-            // disable external entities
-            spf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
-            spf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            spf.setNamespaceAware(true);
-            spf.setValidating(false);
-            SAXParser sp = spf.newSAXParser();
-            XMLReader xr = sp.getXMLReader();
             XMLFilter filter = new NamespaceFilter();
-            filter.setParent(xr);
+            filter.setParent(XML_READER.get());
 
             UnmarshallerHandler unmarshallerHandler = unmarshaller.getUnmarshallerHandler();
             filter.setContentHandler(unmarshallerHandler);
-            filter.parse(new InputSource(IOUtils.toInputStream(value, UTF_8)));
+            filter.parse(value);
             composition = (T) unmarshallerHandler.getResult();
-        } catch (JAXBException | ParserConfigurationException | SAXException | IOException e) {
+        } catch (JAXBException | SAXException | IOException e) {
             throw new UnmarshalException(e.getMessage(), e);
         }
         return composition;
     }
 
+    /**
+     * Reads the {@link CompositionHeader#DEFAULT_ATTRIBUTES} of a composition, see {@link #unmarshalHeader(InputStream,
+     * Set)}.
+     */
+    public Composition unmarshalHeader(InputStream value) {
+        return unmarshalHeader(value, CompositionHeader.DEFAULT_ATTRIBUTES);
+    }
+
+    /**
+     * Reads only the given top level attributes of a composition. Other attributes, like the content, are skipped
+     * without being unmarshalled and parsing stops once all given attributes are read.
+     *
+     * @param value      a composition in canonical xml. It is not closed.
+     * @param attributes the RM names of single valued attributes of the composition
+     * @return a composition with only the given attributes set
+     */
+    public Composition unmarshalHeader(InputStream value, Set<String> attributes) {
+        CompositionHeader header = new CompositionHeader(attributes);
+        try {
+            XMLStreamReader reader = new NamespaceStreamReader(XML_INPUT_FACTORY.get().createXMLStreamReader(value));
+            try {
+                reader.nextTag();
+                // e.g. archetype_node_id
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    String attribute = reader.getAttributeLocalName(i);
+                    if (String.class.equals(header.getType(attribute))) {
+                        header.set(attribute, reader.getAttributeValue(i));
+                    }
+                }
+                reader.next();
+
+                Unmarshaller unmarshaller = UNMARSHALLER.get();
+                while (!header.isComplete() && nextTag(reader) == XMLStreamConstants.START_ELEMENT) {
+                    String attribute = reader.getLocalName();
+                    Class<?> type = header.getType(attribute);
+                    if (type != null) {
+                        // leaves the reader after the end of the element
+                        header.set(attribute, unmarshaller.unmarshal(reader, type).getValue());
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | JAXBException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+        return header.getComposition();
+    }
+
+    /**
+     * @return the current event if it is the start or end of an element, otherwise the next one which is
+     */
+    private static int nextTag(XMLStreamReader reader) throws XMLStreamException {
+        while (!reader.isStartElement() && !reader.isEndElement() && reader.hasNext()) {
+            reader.next();
+        }
+        return reader.getEventType();
+    }
+
+    /**
+     * Skips the element {@code reader} is at and leaves it after its end.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        reader.next();
+    }
+
+    /**
+     * Drops the root element and writes each of its children like a DOM serialisation of the child on its own: the
+     * attributes are in the order of a DOM attribute map and a namespace is declared on each element which uses it and
+     * is not in scope yet. The namespace declarations of the root are dropped with it.
+     */
+    static class InlineFilter extends XMLFilterImpl {
+
+        private static final String XML_PREFIX = "xml";
+
+        // the namespaces declared in the output by element, each child of the root starts a new output
+        private final Deque<Map<String, String>> declared = new ArrayDeque<>();
+        // the namespaces declared in the input on the next element
+        private final Map<String, String> pending = new LinkedHashMap<>();
+        private int depth = 0;
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            if (depth > 0) {
+                pending.put(prefix, uri);
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) {
+            // the declarations are written as attributes
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            if (depth > 0) {
+                if (depth == 1) {
+                    declared.clear();
+                    declared.push(Collections.singletonMap("", ""));
+                }
+                declared.push(new HashMap<>());
+                AttributesImpl attributes = new AttributesImpl();
+
+                pending.keySet().stream()
+                        .sorted(Comparator.comparing(InlineFilter::toXmlnsName))
+                        .forEach(prefix -> declare(attributes, prefix, pending.get(prefix)));
+                pending.clear();
+
+                Integer[] order = new Integer[atts.getLength()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparing(atts::getQName));
+                for (int i : order) {
+                    if (!atts.getURI(i).isEmpty()) {
+                        declare(attributes, toPrefix(atts.getQName(i)), atts.getURI(i));
+                    }
+                    attributes.addAttribute(
+                            atts.getURI(i), atts.getLocalName(i), atts.getQName(i), atts.getType(i), atts.getValue(i));
+                }
+
+                declare(attributes, uri.isEmpty() ? "" : toPrefix(qName), uri);
+                super.startElement("", localName, qName, attributes);
+            }
+            depth++;
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            depth--;
+            if (depth > 0) {
+                super.endElement("", localName, qName);
+                declared.pop();
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (depth > 0) {
+                super.characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            if (depth > 0) {
+                super.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        /**
+         * Declares {@code prefix} on the current element unless it is already bound to {@code uri}.
+         */
+        private void declare(AttributesImpl attributes, String prefix, String uri) {
+            if (prefix.startsWith(XML_PREFIX) || uri.equals(lookup(prefix))) {
+                return;
+            }
+            declared.peek().put(prefix, uri);
+            if (prefix.isEmpty() || !uri.isEmpty()) {
+                String qName = toXmlnsName(prefix);
+                int index = attributes.getIndex(qName);
+                if (index >= 0) {
+                    attributes.setValue(index, uri);
+                } else {
+                    attributes.addAttribute(
+                            XMLConstants.XMLNS_ATTRIBUTE_NS_URI, prefix.isEmpty() ? qName : prefix, qName, "CDATA",
+                            uri);
+                }
+            }
+        }
+
+        private String lookup(String prefix) {
+            for (Map<String, String> mappings : declared) {
+                if (mappings.containsKey(prefix)) {
+                    return mappings.get(prefix);
+                }
+            }
+            return null;
+        }
+
+        private static String toPrefix(String qName) {
+            int colon = qName.indexOf(':');
+            return colon > 0 ? qName.substring(0, colon) : "";
+        }
+
+        private static String toXmlnsName(String prefix) {
+            return prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+        }
+    }
+
     private class NamespaceFilter extends XMLFilterImpl {
 
         @Override
@@ -165,4 +467,89 @@ public class CanonicalXML implements RMDataFormat {
             }
         }
     }
+
+    /**
+     * Removes the default namespace like {@link NamespaceFilter} for readers which are passed to the unmarshaller
+     * directly.
+     */
+    private static class NamespaceStreamReader extends StreamReaderDelegate {
+
+        NamespaceStreamReader(XMLStreamReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            return isStartElement() || isEndElement() ? NAMESPACE : super.getNamespaceURI();
+        }
+
+        @Override
+        public QName getName() {
+            return new QName(NAMESPACE, getLocalName());
+        }
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            return isDefault(prefix) ? NAMESPACE : super.getNamespaceURI(prefix);
+        }
+
+        @Override
+        public int getNamespaceCount() {
+            int count = 0;
+            for (int i = 0; i < super.getNamespaceCount(); i++) {
+                if (!isDefault(super.getNamespacePrefix(i))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public String getNamespacePrefix(int index) {
+            return super.getNamespacePrefix(toIndex(index));
+        }
+
+        @Override
+        public String getNamespaceURI(int index) {
+            return super.getNamespaceURI(toIndex(index));
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            NamespaceContext namespaceContext = super.getNamespaceContext();
+            return new NamespaceContext() {
+                @Override
+                public String getNamespaceURI(String prefix) {
+                    return isDefault(prefix) ? NAMESPACE : namespaceContext.getNamespaceURI(prefix);
+                }
+
+                @Override
+                public String getPrefix(String namespaceURI) {
+                    return namespaceContext.getPrefix(namespaceURI);
+                }
+
+                @Override
+                public Iterator<String> getPrefixes(String namespaceURI) {
+                    return namespaceContext.getPrefixes(namespaceURI);
+                }
+            };
+        }
+
+        /**
+         * @return the index in the underlying reader of the {@code index}th declaration without the default namespace
+         */
+        private int toIndex(int index) {
+            int remaining = index;
+            for (int i = 0; i < super.getNamespaceCount(); i++) {
+                if (!isDefault(super.getNamespacePrefix(i)) && remaining-- == 0) {
+                    return i;
+                }
+            }
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+
+        private static boolean isDefault(String prefix) {
+            return prefix == null || prefix.isEmpty();
+        }
+    }
 }
@@ -19,15 +19,29 @@
 
 package org.ehrbase.serialisation.flatencoding;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nedap.archie.rm.composition.Composition;
+import com.nedap.archie.rm.composition.ContentItem;
 import org.apache.commons.io.IOUtils;
+import org.ehrbase.serialisation.flatencoding.std.umarshal.FlatUnmarshalResult;
+import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
 import org.ehrbase.serialisation.templateprovider.TestDataTemplateProvider;
 import org.ehrbase.test_data.composition.CompositionTestDataSimSDTJson;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.ehrbase.serialisation.flatencoding.std.marshal.FlatJsonMarshallerTest.compere;
@@ -59,6 +73,44 @@ public class FlatJsonTest {
     assertThat(errors).filteredOn(s -> s.startsWith("Extra")).containsExactlyInAnyOrder();
   }
 
+  @Test
+  public void roundTripStreamAndBytes() throws IOException {
+    FlatJson cut =
+        new FlatJasonProvider(new TestDataTemplateProvider())
+            .buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese");
+
+    String flat =
+        IOUtils.toString(CompositionTestDataSimSDTJson.CORONA.getStream(), StandardCharsets.UTF_8);
+    Composition composition = cut.unmarshal(flat);
+
+    String expected = cut.marshal(composition);
+    // not ascii
+    assertThat(expected).contains("bericht/symptome/körpertemperatur");
+
+    byte[] bytes = cut.marshalToBytes(composition);
+    assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo(expected);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cut.marshal(composition, out);
+    assertThat(out.toByteArray()).isEqualTo(bytes);
+
+    assertThat(cut.marshal(cut.unmarshal(bytes, Composition.class))).isEqualTo(expected);
+    assertThat(
+            cut.marshal(
+                cut.unmarshal(CompositionTestDataSimSDTJson.CORONA.getStream(), Composition.class)))
+        .isEqualTo(expected);
+    AtomicBoolean closed = new AtomicBoolean();
+    InputStream in =
+        new FilterInputStream(new ByteArrayInputStream(bytes)) {
+          @Override
+          public void close() throws IOException {
+            closed.set(true);
+            super.close();
+          }
+        };
+    assertThat(cut.marshal(cut.unmarshal(in, Composition.class))).isEqualTo(expected);
+    assertThat(closed).isFalse();
+  }
+
   @Test
   public void roundTripVitalSigns() throws IOException {
     TestDataTemplateProvider templateProvider = new TestDataTemplateProvider();
@@ -323,4 +375,152 @@ public class FlatJsonTest {
                     "Extra path: encounter/body_temperature:1/any_event:0/temperature|magnitude, value: 22",
                     "Extra path: encounter/body_temperature:1/any_event:1/temperature|magnitude, value: 11");
   }
+
+  @Test
+  public void applyDelta() throws IOException {
+    FlatJson cut =
+        new FlatJasonProvider(new TestDataTemplateProvider())
+            .buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese");
+
+    String flat =
+        IOUtils.toString(CompositionTestDataSimSDTJson.CORONA.getStream(), StandardCharsets.UTF_8);
+    Composition composition = cut.unmarshal(flat);
+    List<ContentItem> content = new ArrayList<>(composition.getContent());
+
+    ObjectMapper objectMapper = JacksonUtil.getObjectMapper();
+    Map<String, Object> expected = objectMapper.readValue(cut.marshal(composition), Map.class);
+    expected.put("bericht/geschichte_historie:0/beliebiges_ereignis:0/geschichte:0", "War in Wien");
+    expected.put("bericht/symptome/körpertemperatur/temperatur|magnitude", 38.5);
+
+    cut.applyDelta(
+        composition,
+        "{\"bericht/geschichte_historie:0/beliebiges_ereignis:0/geschichte:0\": \"War in Wien\","
+            + "\"bericht/symptome/körpertemperatur/temperatur|magnitude\": 38.5}");
+
+    Map<String, Object> actual = objectMapper.readValue(cut.marshal(composition), Map.class);
+    assertThat(actual).containsExactlyEntriesOf(expected);
+
+    // only the two changed content items are replaced
+    assertThat(composition.getContent()).hasSameSizeAs(content);
+    long unchanged = 0;
+    for (int i = 0; i < content.size(); i++) {
+      if (composition.getContent().get(i) == content.get(i)) {
+        unchanged++;
+      }
+    }
+    assertThat(unchanged).isEqualTo(content.size() - 2);
+  }
+
+  @Test
+  public void applyDeltaCounts() throws IOException {
+    FlatJson cut =
+        new FlatJasonProvider(new TestDataTemplateProvider())
+            .buildFlatJson(FlatFormat.SIM_SDT, "ehrbase_multi_occurrence.de.v1");
+
+    String flat =
+        IOUtils.toString(
+            CompositionTestDataSimSDTJson.MULTI_OCCURRENCE.getStream(), StandardCharsets.UTF_8);
+    ObjectMapper objectMapper = JacksonUtil.getObjectMapper();
+    String first = "encounter/body_temperature:0/";
+    String second = "encounter/body_temperature:1/";
+
+    // change an item with count 1
+    Composition composition = cut.unmarshal(flat);
+    ContentItem unchanged = composition.getContent().get(0);
+    Map<String, Object> expected = objectMapper.readValue(cut.marshal(composition), Map.class);
+    expected.put(second + "any_event:0/temperature|unit", "°F");
+
+    cut.applyDelta(composition, "{\"" + second + "any_event:0/temperature|unit\": \"°F\"}");
+
+    assertThat(objectMapper.readValue(cut.marshal(composition), Map.class))
+        .containsExactlyEntriesOf(expected);
+    assertThat(composition.getContent()).hasSize(2);
+    assertThat(composition.getContent().get(0)).isSameAs(unchanged);
+
+    // change an item with count 0, the item with count 1 keeps its instance
+    composition = cut.unmarshal(flat);
+    unchanged = composition.getContent().get(1);
+    expected = objectMapper.readValue(cut.marshal(composition), Map.class);
+    expected.put(first + "any_event:0/temperature|unit", "°F");
+
+    cut.applyDelta(composition, "{\"" + first + "any_event:0/temperature|unit\": \"°F\"}");
+
+    assertThat(objectMapper.readValue(cut.marshal(composition), Map.class))
+        .containsExactlyEntriesOf(expected);
+    assertThat(composition.getContent()).hasSize(2);
+    assertThat(composition.getContent().get(1)).isSameAs(unchanged);
+
+    // remove the item with count 0, the item with count 1 becomes count 0
+    composition = cut.unmarshal(flat);
+    Map<String, Object> old = objectMapper.readValue(cut.marshal(composition), Map.class);
+    Map<String, Object> delta = new LinkedHashMap<>();
+    expected = new LinkedHashMap<>();
+    for (Map.Entry<String, Object> e : old.entrySet()) {
+      if (e.getKey().startsWith(first)) {
+        delta.put(e.getKey(), null);
+      } else {
+        expected.put(e.getKey().replace(second, first), e.getValue());
+      }
+    }
+
+    cut.applyDelta(composition, objectMapper.writeValueAsString(delta));
+
+    assertThat(objectMapper.readValue(cut.marshal(composition), Map.class)).isEqualTo(expected);
+    assertThat(composition.getContent()).hasSize(1);
+
+    // append an item with a new count
+    composition = cut.unmarshal(flat);
+    delta = new LinkedHashMap<>();
+    expected = new LinkedHashMap<>(old);
+    for (Map.Entry<String, Object> e : old.entrySet()) {
+      if (e.getKey().startsWith(second)) {
+        String path = e.getKey().replace(second, "encounter/body_temperature:2/");
+        delta.put(path, e.getValue());
+        expected.put(path, e.getValue());
+      }
+    }
+
+    cut.applyDelta(composition, objectMapper.writeValueAsString(delta));
+
+    assertThat(objectMapper.readValue(cut.marshal(composition), Map.class)).isEqualTo(expected);
+    assertThat(composition.getContent()).hasSize(3);
+  }
+
+  @Test
+  public void buildFlatJsonCached() throws IOException {
+    FlatJasonProvider provider = new FlatJasonProvider(new TestDataTemplateProvider());
+    FlatJson cut = provider.buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese");
+
+    assertThat(provider.buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese")).isSameAs(cut);
+
+    String flat =
+        IOUtils.toString(CompositionTestDataSimSDTJson.CORONA.getStream(), StandardCharsets.UTF_8);
+    FlatUnmarshalResult result = cut.unmarshalWithResult(flat);
+    assertThat(result.getComposition()).isNotNull();
+    assertThat(result.getUnconsumed()).isEmpty();
+
+    provider.invalidate("Corona_Anamnese");
+    assertThat(provider.buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese")).isNotSameAs(cut);
+  }
+
+  @Test
+  public void buildFlatJsonFingerprint() {
+    AtomicReference<String> fingerprint = new AtomicReference<>("1");
+    FlatJasonProvider provider =
+        new FlatJasonProvider(
+            new TestDataTemplateProvider() {
+              @Override
+              public Optional<String> findFingerprint(String templateId) {
+                return Optional.of(fingerprint.get());
+              }
+            });
+    FlatJson cut = provider.buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese");
+    assertThat(provider.buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese")).isSameAs(cut);
+
+    // the template changed
+    fingerprint.set("2");
+    FlatJson rebuilt = provider.buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese");
+    assertThat(rebuilt).isNotSameAs(cut);
+    assertThat(provider.buildFlatJson(FlatFormat.SIM_SDT, "Corona_Anamnese")).isSameAs(rebuilt);
+  }
 }
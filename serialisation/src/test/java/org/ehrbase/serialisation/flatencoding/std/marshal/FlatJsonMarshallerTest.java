@@ -22,24 +22,30 @@ package org.ehrbase.serialisation.flatencoding.std.marshal;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nedap.archie.rm.composition.Composition;
+import com.nedap.archie.rm.composition.ContentItem;
 import org.apache.commons.io.IOUtils;
 import org.apache.xmlbeans.XmlException;
 import org.assertj.core.api.SoftAssertions;
+import org.ehrbase.serialisation.flatencoding.std.umarshal.StdToCompositionWalker;
 import org.ehrbase.serialisation.jsonencoding.CanonicalJson;
 import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
 import org.ehrbase.test_data.composition.CompositionTestDataCanonicalJson;
 import org.ehrbase.test_data.composition.CompositionTestDataSimSDTJson;
 import org.ehrbase.test_data.operationaltemplate.OperationalTemplateTestData;
+import org.ehrbase.webtemplate.model.WebTemplate;
 import org.ehrbase.webtemplate.parser.OPTParser;
 import org.junit.Test;
 import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
 import org.openehr.schemas.v1.TemplateDocument;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -71,6 +77,237 @@ public class FlatJsonMarshallerTest {
     assertThat(errors).filteredOn(s -> s.startsWith("Extra")).containsExactlyInAnyOrder();
   }
 
+  @Test
+  public void toFlatJsonFrozen() throws IOException, XmlException {
+
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+    WebTemplate webTemplate = new OPTParser(template).parse();
+    WebTemplate frozen = new StdFromCompositionWalker().freeze(webTemplate);
+    assertThat(frozen.isFrozen()).isTrue();
+
+    FlatJsonMarshaller cut = new FlatJsonMarshaller();
+    String expected = cut.toFlatJson(composition, webTemplate);
+
+    // a frozen template is not modified by the walk and can be reused
+    assertThat(cut.toFlatJson(composition, frozen)).isEqualTo(expected);
+    assertThat(cut.toFlatJson(composition, frozen)).isEqualTo(expected);
+  }
+
+  @Test
+  public void toFlatJsonNotNormalised() throws IOException, XmlException {
+
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+    WebTemplate webTemplate = new OPTParser(template).parse();
+
+    FlatJsonMarshaller cut = new FlatJsonMarshaller();
+    String expected = cut.toFlatJson(composition, webTemplate);
+
+    // frozen without normalisation or normalised for another walker
+    WebTemplate frozen = new WebTemplate(webTemplate).freeze();
+    assertThat(frozen.getNormalisedFor()).isNull();
+    assertThat(cut.toFlatJson(composition, frozen)).isEqualTo(expected);
+    assertThat(cut.toFlatJson(composition, frozen)).isEqualTo(expected);
+
+    WebTemplate otherWalker = new StdToCompositionWalker().freeze(webTemplate);
+    assertThat(otherWalker.getNormalisedFor()).isEqualTo(StdToCompositionWalker.class);
+    assertThat(cut.toFlatJson(composition, otherWalker)).isEqualTo(expected);
+  }
+
+  @Test
+  public void toFlatJsonParallel() throws IOException, XmlException {
+
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+    WebTemplate webTemplate = new OPTParser(template).parse();
+    WebTemplate frozen = new StdFromCompositionWalker().freeze(webTemplate);
+
+    String expected = new FlatJsonMarshaller().toFlatJson(composition, webTemplate);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      String actual = new FlatJsonMarshaller(pool).toFlatJson(composition, frozen);
+
+      // same values in the same order
+      assertThat(actual).isEqualTo(expected);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void toFlatJsonStreamParallel() throws IOException, XmlException {
+
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+    // many content items of several archetypes
+    List<ContentItem> content = new ArrayList<>(composition.getContent());
+    for (int i = 0; i < 4; i++) {
+      composition.getContent().addAll(content);
+    }
+    WebTemplate webTemplate = new OPTParser(template).parse();
+    WebTemplate frozen = new StdFromCompositionWalker().freeze(webTemplate);
+
+    String expected = new FlatJsonMarshaller().toFlatJson(composition, webTemplate);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new FlatJsonMarshaller(pool).toFlatJson(composition, frozen, out);
+      String actual = out.toString(StandardCharsets.UTF_8);
+
+      // same values in the same order
+      ObjectMapper objectMapper = JacksonUtil.getObjectMapper();
+      assertThat(objectMapper.readTree(actual)).isEqualTo(objectMapper.readTree(expected));
+      assertThat(objectMapper.readValue(actual, Map.class).keySet())
+          .containsExactlyElementsOf(objectMapper.readValue(expected, Map.class).keySet());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void toFlatJsonProjection() throws IOException, XmlException {
+
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+    WebTemplate webTemplate = new OPTParser(template).parse();
+    WebTemplate frozen = new StdFromCompositionWalker().freeze(webTemplate);
+
+    FlatJsonMarshaller cut = new FlatJsonMarshaller();
+    ObjectMapper objectMapper = JacksonUtil.getObjectMapper();
+    Map<String, Object> all =
+        objectMapper.readValue(cut.toFlatJson(composition, webTemplate), Map.class);
+
+    // the first two segments of the last value, e.g. a section
+    String lastKey = new ArrayList<>(all.keySet()).get(all.size() - 1);
+    String[] segments = lastKey.replaceAll(":\\d+", "").split("/");
+    FlatProjection projection = FlatProjection.of(segments[0] + "/" + segments[1]);
+
+    Map<String, Object> expected = new LinkedHashMap<>(all);
+    expected.keySet().removeIf(k -> !projection.matches(k));
+    assertThat(expected).isNotEmpty().hasSizeLessThan(all.size());
+
+    Map<String, Object> actual =
+        objectMapper.readValue(cut.toFlatJson(composition, webTemplate, projection), Map.class);
+    assertThat(actual).containsExactlyEntriesOf(expected);
+
+    Map<String, Object> actualFrozen =
+        objectMapper.readValue(cut.toFlatJson(composition, frozen, projection), Map.class);
+    assertThat(actualFrozen).containsExactlyEntriesOf(expected);
+    // the pruned template is created once
+    assertThat(projection.prune(frozen)).isSameAs(projection.prune(frozen));
+  }
+
+  @Test
+  public void toFlatJsonProjectionSelectors() throws IOException, XmlException {
+
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+    WebTemplate webTemplate = new OPTParser(template).parse();
+    WebTemplate frozen = new StdFromCompositionWalker().freeze(webTemplate);
+
+    FlatJsonMarshaller cut = new FlatJsonMarshaller();
+    ObjectMapper objectMapper = JacksonUtil.getObjectMapper();
+    Map<String, Object> all =
+        objectMapper.readValue(cut.toFlatJson(composition, webTemplate), Map.class);
+
+    // a node id and a path with counts
+    for (String selector : List.of("heiserkeit", "bericht/risikogebiet/reisefall:0")) {
+      FlatProjection projection = FlatProjection.of(selector);
+
+      Map<String, Object> expected = new LinkedHashMap<>(all);
+      expected.keySet().removeIf(k -> !projection.matches(k));
+      assertThat(expected).as(selector).isNotEmpty().hasSizeLessThan(all.size());
+
+      Map<String, Object> actual =
+          objectMapper.readValue(cut.toFlatJson(composition, frozen, projection), Map.class);
+      assertThat(actual).as(selector).containsExactlyEntriesOf(expected);
+
+      // a new projection with the same selectors reuses the pruned template
+      assertThat(FlatProjection.of(selector).prune(frozen)).isSameAs(projection.prune(frozen));
+    }
+
+    // the pruned templates kept with the frozen template are bounded
+    WebTemplate first = FlatProjection.of("heiserkeit").prune(frozen);
+    for (int i = 0; i < FlatProjection.PRUNED_CACHE_SIZE; i++) {
+      FlatProjection.of("bericht/risikogebiet/reisefall:" + i).prune(frozen);
+    }
+    assertThat(FlatProjection.of("heiserkeit").prune(frozen)).isNotSameAs(first);
+  }
+
+  @Test
+  public void toFlatJsonStream() throws IOException, XmlException {
+
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+    WebTemplate webTemplate = new OPTParser(template).parse();
+
+    FlatJsonMarshaller cut = new FlatJsonMarshaller();
+    String expected = cut.toFlatJson(composition, new WebTemplate(webTemplate));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cut.toFlatJson(composition, new WebTemplate(webTemplate), out);
+    String actual = out.toString(StandardCharsets.UTF_8);
+
+    ObjectMapper objectMapper = JacksonUtil.getObjectMapper();
+    assertThat(objectMapper.readTree(actual)).isEqualTo(objectMapper.readTree(expected));
+    // same order of the keys
+    assertThat(
+            objectMapper.readValue(actual, Map.class).keySet())
+        .containsExactlyElementsOf(objectMapper.readValue(expected, Map.class).keySet());
+  }
+
   @Test
   public void toFlatJsonAltEvents() throws IOException, XmlException {
 
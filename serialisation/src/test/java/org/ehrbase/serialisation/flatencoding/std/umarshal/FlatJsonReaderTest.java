@@ -0,0 +1,82 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.flatencoding.std.umarshal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
+import org.ehrbase.test_data.composition.CompositionTestDataSimSDTJson;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FlatJsonReaderTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.getObjectMapper();
+
+  @Test
+  public void read() throws IOException {
+    String flat =
+        "{\"a/b|magnitude\": 12.5, \"a/b|unit\": \"mm[Hg]\", \"a/c\": 3, \"a/d\": true,"
+            + " \"a/e\": null, \"a/f\": \"line\\n\\\"quoted\\\"\", \"a/g\": {\"x\": [1, 2]}}";
+
+    assertThat(read(flat)).containsExactlyEntriesOf(readTree(flat));
+  }
+
+  @Test
+  public void readCorona() throws IOException {
+    String flat =
+        IOUtils.toString(CompositionTestDataSimSDTJson.CORONA.getStream(), StandardCharsets.UTF_8);
+
+    Map<String, String> actual = read(flat);
+    Map<String, String> expected = readTree(flat);
+
+    assertThat(actual).containsOnlyKeys(expected.keySet());
+    // the json texts of the values are equivalent
+    for (Map.Entry<String, String> e : expected.entrySet()) {
+      assertThat(OBJECT_MAPPER.readTree(actual.get(e.getKey())))
+          .isEqualTo(OBJECT_MAPPER.readTree(e.getValue()));
+    }
+  }
+
+  private static Map<String, String> read(String flat) throws IOException {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(flat)) {
+      return FlatJsonReader.read(parser);
+    }
+  }
+
+  private static Map<String, String> readTree(String flat) throws IOException {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (Iterator<Map.Entry<String, JsonNode>> it = OBJECT_MAPPER.readTree(flat).fields();
+        it.hasNext(); ) {
+      Map.Entry<String, JsonNode> e = it.next();
+      values.put(e.getKey(), e.getValue().toString());
+    }
+    return values;
+  }
+}
@@ -19,17 +19,27 @@
 
 package org.ehrbase.serialisation.flatencoding.std.umarshal;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.nedap.archie.rm.RMObject;
 import com.nedap.archie.rm.composition.Composition;
 import com.nedap.archie.rm.composition.Observation;
 import com.nedap.archie.rm.datavalues.quantity.DvQuantity;
 import com.nedap.archie.rm.generic.PartySelf;
 import org.apache.commons.io.IOUtils;
 import org.apache.xmlbeans.XmlException;
+import org.ehrbase.building.webtemplateskeletnbuilder.WebTemplateSkeletonFactory;
+import org.ehrbase.client.classgenerator.shareddefinition.Setting;
+import org.ehrbase.serialisation.exception.UnmarshalException;
+import org.ehrbase.serialisation.jsonencoding.JacksonUtil;
+import org.ehrbase.serialisation.walker.defaultvalues.DefaultValuePath;
+import org.ehrbase.serialisation.walker.defaultvalues.DefaultValues;
 import org.ehrbase.test_data.composition.CompositionTestDataSimSDTJson;
 import org.ehrbase.test_data.operationaltemplate.OperationalTemplateTestData;
 import org.ehrbase.validation.Validator;
 import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
 import org.ehrbase.webtemplate.parser.OPTParser;
+import org.ehrbase.webtemplate.path.flat.FlatPathDto;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
@@ -37,8 +47,14 @@ import org.openehr.schemas.v1.TemplateDocument;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class FlatJsonUnmarshallerTest {
 
@@ -73,6 +89,104 @@ public class FlatJsonUnmarshallerTest {
     }
   }
 
+  @Test
+  public void unmarshalStrict() throws IOException, XmlException {
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+    WebTemplate webTemplate = new OPTParser(template).parse();
+
+    FlatJsonUnmarshaller cut = new FlatJsonUnmarshaller(true);
+
+    String flat =
+        IOUtils.toString(CompositionTestDataSimSDTJson.CORONA.getStream(), StandardCharsets.UTF_8);
+
+    FlatUnmarshalResult result = cut.unmarshalWithResult(flat, webTemplate);
+    assertThat(result.getComposition()).isNotNull();
+    assertThat(result.isAllConsumed()).isTrue();
+
+    String withUnknown =
+        flat.replaceFirst(
+            "\\{", "{\"bericht/unknown\": \"value\", \"ctx/unknown\": \"value\",");
+    assertThat(
+            new FlatJsonUnmarshaller()
+                .unmarshalWithResult(withUnknown, webTemplate)
+                .getUnconsumed())
+        .containsExactly("bericht/unknown");
+    assertThatThrownBy(() -> cut.unmarshal(withUnknown, webTemplate))
+        .isInstanceOf(UnmarshalException.class)
+        .hasMessageContaining("bericht/unknown");
+
+    Map<String, String> values;
+    try (JsonParser parser = JacksonUtil.getObjectMapper().getFactory().createParser(flat)) {
+      values = FlatJsonReader.read(parser);
+    }
+    assertThat(cut.unmarshalWithResult(values, webTemplate).isAllConsumed()).isTrue();
+    values.put("bericht/unknown", "\"value\"");
+    assertThatThrownBy(() -> cut.unmarshalWithResult(values, webTemplate))
+        .isInstanceOf(UnmarshalException.class)
+        .hasMessageContaining("bericht/unknown");
+  }
+
+  @Test
+  public void walkFrozenWithSkeletonFactory() throws IOException, XmlException {
+    // frozen, but not normalised for the walker, like the introspect of the Unflattener
+    WebTemplate webTemplate =
+        new OPTParser(
+                TemplateDocument.Factory.parse(
+                        OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+                    .getTemplate())
+            .parse()
+            .freeze();
+
+    String flat =
+        IOUtils.toString(CompositionTestDataSimSDTJson.CORONA.getStream(), StandardCharsets.UTF_8);
+    Map<String, String> currentValues;
+    try (JsonParser parser = JacksonUtil.getObjectMapper().getFactory().createParser(flat)) {
+      currentValues = FlatJsonReader.read(parser);
+    }
+    Map<FlatPathDto, String> values = new LinkedHashMap<>();
+    currentValues.forEach((k, v) -> values.put(new FlatPathDto(k), v));
+    DefaultValues defaultValues = new DefaultValues(currentValues);
+    defaultValues.addDefaultValue(DefaultValuePath.TIME, OffsetDateTime.now());
+    defaultValues.addDefaultValue(DefaultValuePath.SETTING, Setting.OTHER_CARE);
+
+    List<Boolean> cached = new ArrayList<>();
+    StdToCompositionWalker walker =
+        new StdToCompositionWalker() {
+
+          private WebTemplateSkeletonFactory factory;
+
+          @Override
+          protected void preWalk(WebTemplate walked) {
+            super.preWalk(walked);
+            factory = WebTemplateSkeletonFactory.of(walked);
+          }
+
+          @Override
+          protected Object extractRMChild(
+              RMObject currentRM,
+              WebTemplateNode currentNode,
+              WebTemplateNode childNode,
+              boolean isChoice,
+              Integer count) {
+            cached.add(factory.contains(childNode));
+            return super.extractRMChild(currentRM, currentNode, childNode, isChoice, count);
+          }
+        };
+
+    Composition composition = WebTemplateSkeletonFactory.of(webTemplate).build();
+    walker.walk(
+        composition,
+        values,
+        webTemplate,
+        defaultValues,
+        composition.getArchetypeDetails().getTemplateId().getValue());
+
+    assertThat(cached).isNotEmpty().containsOnly(true);
+    assertThat(composition.itemAtPath("/content[openEHR-EHR-OBSERVATION.story.v1]")).isNotNull();
+  }
+
   @Test
   public void unmarshalMulti() throws IOException, XmlException {
     OPERATIONALTEMPLATE template =
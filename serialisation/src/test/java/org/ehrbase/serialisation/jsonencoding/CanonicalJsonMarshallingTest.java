@@ -1,6 +1,7 @@
 package org.ehrbase.serialisation.jsonencoding;
 
 import com.nedap.archie.rm.changecontrol.Contribution;
+import com.nedap.archie.rm.composition.Composition;
 import com.nedap.archie.rm.datastructures.Element;
 import com.nedap.archie.rm.datastructures.ItemTree;
 import com.nedap.archie.rm.datavalues.encapsulated.DvMultimedia;
@@ -11,15 +12,23 @@ import com.nedap.archie.rm.ehr.Ehr;
 import com.nedap.archie.rm.support.identification.HierObjectId;
 import com.nedap.archie.rm.support.identification.ObjectId;
 import com.nedap.archie.rm.support.identification.ObjectRef;
+import org.apache.commons.io.IOUtils;
+import org.ehrbase.test_data.composition.CompositionTestDataCanonicalJson;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -136,4 +145,58 @@ public class CanonicalJsonMarshallingTest {
         Ehr actual = cut.unmarshal(json, Ehr.class);
         Assert.assertEquals(actual, expected);
     }
+
+    @Test
+    public void marshallContributionBytes() {
+        List<ObjectRef<? extends ObjectId>> versions = new ArrayList<>();
+        versions.add(new ObjectRef<>(new HierObjectId("COMPOSITION"), "local", "b5c4aaed-2adc-4c56-9005-e21ff3cca62a::local.ehrbase.org::2"));
+
+        Contribution expected = new Contribution();
+        expected.setUid(new HierObjectId("bbf60d27-9200-4995-a950-279f889d1050"));
+        expected.setVersions(versions);
+
+        CanonicalJson cut = new CanonicalJson();
+        byte[] bytes = cut.marshalToBytes(expected);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cut.marshal(expected, out);
+
+        assertThat(out.toByteArray()).containsExactly(bytes);
+        assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo(cut.marshal(expected));
+        Assert.assertEquals(expected, cut.unmarshal(bytes, Contribution.class));
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        Assert.assertEquals(expected, cut.unmarshal(in, Contribution.class));
+        assertThat(closed).isFalse();
+    }
+
+    @Test
+    public void unmarshalHeader() throws IOException {
+        CanonicalJson cut = new CanonicalJson();
+        Composition expected = cut.unmarshal(IOUtils.toString(CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8), Composition.class);
+
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream value = new FilterInputStream(CompositionTestDataCanonicalJson.CORONA.getStream()) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        Composition actual = cut.unmarshalHeader(value);
+        assertThat(closed).isFalse();
+
+        assertThat(actual.getUid()).isEqualTo(expected.getUid());
+        assertThat(actual.getArchetypeDetails()).isEqualTo(expected.getArchetypeDetails());
+        assertThat(actual.getComposer()).isEqualTo(expected.getComposer());
+        assertThat(actual.getContext().getStartTime()).isEqualTo(expected.getContext().getStartTime());
+        assertThat(actual.getLanguage()).isEqualTo(expected.getLanguage());
+        assertThat(actual.getName()).isNull();
+        assertThat(actual.getContent()).isNullOrEmpty();
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.jsonencoding;
+
+import com.nedap.archie.rm.composition.Composition;
+import org.apache.commons.io.IOUtils;
+import org.assertj.core.api.SoftAssertions;
+import org.ehrbase.test_data.composition.CompositionTestDataCanonicalJson;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class CanonicalSmileTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        CanonicalJson canonicalJson = new CanonicalJson();
+        CanonicalSmile cut = new CanonicalSmile();
+
+        SoftAssertions softly = new SoftAssertions();
+        for (CompositionTestDataCanonicalJson testData : new CompositionTestDataCanonicalJson[]{
+                CompositionTestDataCanonicalJson.ALL_TYPES,
+                CompositionTestDataCanonicalJson.CORONA,
+                CompositionTestDataCanonicalJson.LABORATORY_REPORT,
+                CompositionTestDataCanonicalJson.NESTED,
+                CompositionTestDataCanonicalJson.TIME_SERIES}) {
+            Composition composition = canonicalJson.unmarshal(IOUtils.toString(testData.getStream(), UTF_8), Composition.class);
+            byte[] json = canonicalJson.marshalToBytes(composition);
+
+            byte[] smile = cut.marshalToBytes(composition);
+
+            softly.assertThat(smile.length).as(testData.name()).isLessThan(json.length);
+            softly.assertThat(canonicalJson.marshalToBytes(cut.unmarshal(smile, Composition.class)))
+                    .as(testData.name())
+                    .containsExactly(json);
+            AtomicBoolean closed = new AtomicBoolean();
+            InputStream in = new FilterInputStream(new ByteArrayInputStream(smile)) {
+                @Override
+                public void close() throws IOException {
+                    closed.set(true);
+                    super.close();
+                }
+            };
+            softly.assertThat(cut.unmarshal(in, Composition.class))
+                    .as(testData.name())
+                    .isEqualTo(composition);
+            softly.assertThat(closed).as(testData.name()).isFalse();
+            softly.assertThat(cut.unmarshal(cut.marshal(composition), Composition.class))
+                    .as(testData.name())
+                    .isEqualTo(composition);
+        }
+        softly.assertAll();
+    }
+}
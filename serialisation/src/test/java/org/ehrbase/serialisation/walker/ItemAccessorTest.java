@@ -0,0 +1,96 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.serialisation.walker;
+
+import com.nedap.archie.rm.archetyped.Pathable;
+import com.nedap.archie.rm.composition.Composition;
+import org.apache.commons.io.IOUtils;
+import org.apache.xmlbeans.XmlException;
+import org.assertj.core.api.SoftAssertions;
+import org.ehrbase.serialisation.jsonencoding.CanonicalJson;
+import org.ehrbase.test_data.composition.CompositionTestDataCanonicalJson;
+import org.ehrbase.test_data.operationaltemplate.OperationalTemplateTestData;
+import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+import org.ehrbase.webtemplate.parser.OPTParser;
+import org.junit.Test;
+import org.openehr.schemas.v1.TemplateDocument;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class ItemAccessorTest {
+
+  @Test
+  public void findItems() throws IOException, XmlException {
+    WebTemplate webTemplate =
+        new OPTParser(
+                TemplateDocument.Factory.parse(
+                        OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+                    .getTemplate())
+            .parse();
+    Composition composition =
+        new CanonicalJson()
+            .unmarshal(
+                IOUtils.toString(
+                    CompositionTestDataCanonicalJson.CORONA.getStream(), StandardCharsets.UTF_8),
+                Composition.class);
+
+    SoftAssertions softly = new SoftAssertions();
+    check(softly, webTemplate.getTree(), composition);
+    softly.assertAll();
+  }
+
+  /** Compares the direct access with the path query of Archie for all edges below {@code node}. */
+  private void check(SoftAssertions softly, WebTemplateNode node, Object rmObject) {
+    if (!(rmObject instanceof Pathable)) {
+      return;
+    }
+    Pathable pathable = (Pathable) rmObject;
+    for (WebTemplateNode child : node.getChildren()) {
+      ItemAccessor accessor = new ItemAccessor(node, child);
+      Object expected = findByPathQuery(pathable, accessor.getChildAql());
+      if (accessor.isDirect()) {
+        Object actual = accessor.findItems(pathable);
+        if (actual != ItemAccessor.UNKNOWN) {
+          softly.assertThat(actual).as(child.getAqlPath()).isEqualTo(expected);
+        }
+      }
+      if (expected instanceof List) {
+        ((List<?>) expected).forEach(c -> check(softly, child, c));
+      } else {
+        check(softly, child, expected);
+      }
+    }
+  }
+
+  private static Object findByPathQuery(Pathable pathable, String path) {
+    try {
+      Object items = pathable.itemsAtPath(path);
+      if (items == null || ((List<?>) items).isEmpty()) {
+        items = pathable.itemAtPath(path);
+      }
+      return items;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -18,16 +18,41 @@
 
 package org.ehrbase.serialisation.xmlencoding;
 
+import com.nedap.archie.rm.RMObject;
 import com.nedap.archie.rm.composition.Composition;
 import com.nedap.archie.rm.datavalues.DvText;
 import com.nedap.archie.rm.directory.Folder;
+import com.nedap.archie.rm.generic.PartyIdentified;
 import com.nedap.archie.rm.support.identification.PartyRef;
+import com.nedap.archie.xml.JAXBUtil;
 import org.apache.commons.io.IOUtils;
 import org.ehrbase.test_data.composition.CompositionTestDataCanonicalXML;
 import org.junit.Test;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 
+import javax.xml.bind.JAXBElement;
 import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -47,6 +72,37 @@ public class CanonicalXMLTest {
         assertThat(marshal).isNotEmpty();
     }
 
+    @Test
+    public void marshalStreamAndBytes() throws IOException {
+        String value = IOUtils.toString(CompositionTestDataCanonicalXML.ALL_TYPES.getStream(), UTF_8);
+        CanonicalXML cut = new CanonicalXML();
+        Composition composition = cut.unmarshal(value, Composition.class);
+        // not ascii
+        composition.setName(new DvText("Körpertemperatur – 体温 ✓"));
+
+        String expected = cut.marshal(composition);
+        assertThat(expected).contains("Körpertemperatur – 体温 ✓");
+
+        byte[] bytes = cut.marshalToBytes(composition);
+        assertThat(new String(bytes, UTF_8)).isEqualTo(expected);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cut.marshal(composition, out);
+        assertThat(out.toByteArray()).isEqualTo(bytes);
+
+        assertThat(cut.marshal(cut.unmarshal(bytes, Composition.class))).isEqualTo(expected);
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        assertThat(cut.marshal(cut.unmarshal(in, Composition.class))).isEqualTo(expected);
+        assertThat(closed).isFalse();
+        assertThat(cut.marshal(cut.unmarshal(expected, Composition.class))).isEqualTo(expected);
+    }
+
     @Test
     public void unmarshal() throws IOException {
         String value = IOUtils.toString(CompositionTestDataCanonicalXML.ALL_TYPES.getStream(), UTF_8);
@@ -84,13 +140,124 @@ public class CanonicalXMLTest {
     }
 
     @Test
-    public void marshalInline() {
+    public void marshalInline() throws Exception {
         Folder folder = new Folder();
         folder.setName(new DvText("folder name"));
         folder.addItem(new PartyRef());
         CanonicalXML canonicalXML = new CanonicalXML();
 
         String inline = canonicalXML.marshalInline(folder, new QName(null, "folder"));
-        System.out.println(inline);
+        assertThat(inline).doesNotContain("<folder", "<?xml").contains("<name", "folder name");
+        assertThat(inline).isEqualTo(marshalInlineDom(folder, new QName(null, "folder")));
+    }
+
+    @Test
+    public void marshalInlineComposition() throws Exception {
+        String value = IOUtils.toString(CompositionTestDataCanonicalXML.ALL_TYPES.getStream(), UTF_8);
+        CanonicalXML cut = new CanonicalXML();
+        Composition composition = cut.unmarshal(value, Composition.class);
+        // not ascii
+        composition.setName(new DvText("Körpertemperatur & <Größe>"));
+
+        QName qName = new QName(null, "composition");
+        String inline = cut.marshalInline(composition, qName);
+
+        assertThat(inline).contains("xsi:type", "Körpertemperatur &amp; &lt;Größe&gt;");
+        assertThat(inline).isEqualTo(marshalInlineDom(composition, qName));
+    }
+
+    @Test
+    public void marshalInlineNamespacesAndText() throws Exception {
+        String[] values = {
+            // namespaces of the root used by the children
+            "<folder xmlns=\"http://schemas.openehr.org/v1\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+                    + "<name xsi:type=\"DV_TEXT\"><value>a &amp; ä</value></name>"
+                    + "<items archetype_node_id=\"at1\" xsi:type=\"OBSERVATION\"><data xsi:type=\"HISTORY\"/></items>"
+                    + "</folder>",
+            // text directly under the root
+            "<folder xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">text &lt; before"
+                    + "<name xsi:type=\"DV_TEXT\">x</name>between<items/>after</folder>",
+            // namespaces declared below the root and the default namespace undeclared
+            "<folder xmlns=\"urn:d\" xmlns:p=\"urn:p\"><p:a xmlns:p=\"urn:p2\" xmlns:q=\"urn:q\" q:x=\"1\">"
+                    + "<q:b/></p:a><c xmlns=\"\"><d/></c></folder>"
+        };
+
+        for (String value : values) {
+            TransformerHandler transformerHandler =
+                    ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+            transformerHandler.getTransformer().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            StringWriter stringWriter = new StringWriter();
+            transformerHandler.setResult(new StreamResult(stringWriter));
+            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+            saxParserFactory.setNamespaceAware(true);
+            CanonicalXML.InlineFilter filter = new CanonicalXML.InlineFilter();
+            filter.setParent(saxParserFactory.newSAXParser().getXMLReader());
+            filter.setContentHandler(transformerHandler);
+            filter.parse(new InputSource(new StringReader(value)));
+
+            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(true);
+            Node root =
+                    documentBuilderFactory
+                            .newDocumentBuilder()
+                            .parse(new InputSource(new StringReader(value)))
+                            .getDocumentElement();
+
+            assertThat(stringWriter.toString()).as(value).isEqualTo(transformChildren(root));
+        }
+    }
+
+    /**
+     * The former implementation of {@link CanonicalXML#marshalInline(RMObject, QName)}, which marshals to a DOM and
+     * serialises each child of the root on its own.
+     */
+    private static String marshalInlineDom(RMObject rmObject, QName qName) throws Exception {
+        DOMResult res = new DOMResult();
+        JAXBUtil.getArchieJAXBContext()
+                .createMarshaller()
+                .marshal(new JAXBElement<>(qName, RMObject.class, rmObject), res);
+        return transformChildren(res.getNode().getFirstChild());
+    }
+
+    private static String transformChildren(Node root) throws TransformerException {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        NodeList childNodes = root.getChildNodes();
+
+        StringWriter stringWriter = new StringWriter();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            transformer.transform(new DOMSource(childNodes.item(i)), new StreamResult(stringWriter));
+        }
+        return stringWriter.toString();
+    }
+
+    @Test
+    public void unmarshalHeader() throws IOException {
+        CanonicalXML cut = new CanonicalXML();
+
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream value = new FilterInputStream(
+                CompositionTestDataCanonicalXML.RIPPLE_COMFORMANCE_OBSERVATION_DEMO.getStream()) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        Composition actual = cut.unmarshalHeader(value);
+        assertThat(closed).isFalse();
+
+        assertThat(actual.getArchetypeNodeId()).isEqualTo("openEHR-EHR-COMPOSITION.encounter.v1");
+        assertThat(actual.getUid().getValue())
+                .isEqualTo("f16dd9db-b2cd-4e68-b08d-38bea43751b9::ripple_osi.ehrscape.c4h::1");
+        assertThat(actual.getArchetypeDetails().getTemplateId().getValue())
+                .isEqualTo("RIPPLE - Conformance Test template");
+        assertThat(actual.getComposer()).isInstanceOf(PartyIdentified.class);
+        assertThat(((PartyIdentified) actual.getComposer()).getName()).isEqualTo("Silvia Blake");
+        assertThat(actual.getContext().getStartTime().getValue()).hasToString("2015-12-02T17:41:56.809Z");
+        assertThat(actual.getContext().getSetting().getDefiningCode().getCodeString()).isEqualTo("238");
+        assertThat(actual.getContext().getOtherContext()).isNotNull();
+        assertThat(actual.getLanguage().getCodeString()).isEqualTo("en");
+        assertThat(actual.getContent()).isNullOrEmpty();
     }
-}
\ No newline at end of file
+}
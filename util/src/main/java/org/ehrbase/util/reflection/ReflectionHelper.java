@@ -23,15 +23,19 @@ import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ScanResult;
 import org.ehrbase.util.exception.SdkException;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /** Helper class to find Configurations classes in the classpath. */
 public class ReflectionHelper {
 
-  private static final Map<Class<?>, Map> cache = new HashMap<>();
+  private static final Map<Class<?>, Map> cache = new ConcurrentHashMap<>();
+
+  private static final Map<Class<?>, ClassValue<?>> hierarchyCache = new ConcurrentHashMap<>();
 
   private ReflectionHelper() {}
 
@@ -56,6 +60,40 @@ public class ReflectionHelper {
     return classSMap;
   }
 
+  /**
+   * Returns for every class the implementations of the interface {@code root} associated with the
+   * class or one of its superclasses, the most specific first. The list is resolved once per class,
+   * so dispatching on the class of a RM object does not walk the class hierarchy again.
+   *
+   * @param root A Interface extending {@link ClassDependent }
+   * @param <T>
+   * @param <S>
+   * @return
+   */
+  public static <T, S extends ClassDependent<T>> ClassValue<List<S>> buildHierarchyMap(
+      Class<S> root) {
+
+    return (ClassValue<List<S>>)
+        hierarchyCache.computeIfAbsent(
+            root,
+            r -> {
+              Map<Class<? extends T>, S> classSMap = buildMap(root);
+              return new ClassValue<List<S>>() {
+                @Override
+                protected List<S> computeValue(Class<?> type) {
+                  List<S> list = new ArrayList<>();
+                  for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    S s = classSMap.get(c);
+                    if (s != null) {
+                      list.add(s);
+                    }
+                  }
+                  return Collections.unmodifiableList(list);
+                }
+              };
+            });
+  }
+
   public static List<Class<?>> findAll(String packageName) {
     try (ScanResult result =
         new ClassGraph()
@@ -19,14 +19,21 @@
 
 package org.ehrbase.webtemplate.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.ehrbase.webtemplate.parser.FlatPath;
 import org.ehrbase.webtemplate.parser.NodeId;
@@ -37,8 +44,18 @@ public class WebTemplate implements Serializable {
   private String templateId;
   private String version;
   private String defaultLanguage;
-  private final List<String> languages = new ArrayList<>();
+  private List<String> languages = new ArrayList<>();
   private WebTemplateNode tree;
+  @JsonIgnore private boolean frozen;
+
+  // Lookup indexes, lazily built for frozen templates only, since a modifiable tree can change
+  // without notice.
+  private transient volatile Map<String, List<WebTemplateNode>> aqlPathIndex;
+  private transient volatile Map<String, List<WebTemplateNode>> aqlPathWithNameIndex;
+  private transient volatile Map<String, List<WebTemplateNode>> nodeIdIndex;
+
+  // Data derived from a frozen template by other modules, e.g. compiled walker plans.
+  private transient volatile ConcurrentMap<Object, Object> derived;
 
   public WebTemplate() {}
 
@@ -59,6 +76,7 @@ public class WebTemplate implements Serializable {
   }
 
   public void setTemplateId(String templateId) {
+    checkNotFrozen();
     this.templateId = templateId;
   }
 
@@ -67,6 +85,7 @@ public class WebTemplate implements Serializable {
   }
 
   public void setVersion(String version) {
+    checkNotFrozen();
     this.version = version;
   }
 
@@ -75,6 +94,7 @@ public class WebTemplate implements Serializable {
   }
 
   public void setDefaultLanguage(String defaultLanguage) {
+    checkNotFrozen();
     this.defaultLanguage = defaultLanguage;
   }
 
@@ -87,6 +107,7 @@ public class WebTemplate implements Serializable {
   }
 
   public void setTree(WebTemplateNode tree) {
+    checkNotFrozen();
     this.tree = tree;
   }
 
@@ -104,11 +125,130 @@ public class WebTemplate implements Serializable {
 
   public List<WebTemplateNode> findAllByAqlPath(String aql, boolean ignoreName) {
 
-    return tree.findMatching(
-        c ->
-            new FlatPath(aql)
-                .format(!ignoreName)
-                .equals(new FlatPath(c.getAqlPath()).format(!ignoreName)));
+    String path = new FlatPath(aql).format(!ignoreName);
+    if (frozen) {
+      return getAqlPathIndex(!ignoreName).getOrDefault(path, Collections.emptyList());
+    }
+    return tree.findMatching(c -> path.equals(new FlatPath(c.getAqlPath()).format(!ignoreName)));
+  }
+
+  public List<WebTemplateNode> findAllByNodeId(String nodeId) {
+
+    if (frozen) {
+      Map<String, List<WebTemplateNode>> index = nodeIdIndex;
+      if (index == null) {
+        index = buildIndex(WebTemplateNode::getNodeId);
+        nodeIdIndex = index;
+      }
+      return index.getOrDefault(nodeId, Collections.emptyList());
+    }
+    return tree.findMatching(n -> Objects.equals(n.getNodeId(), nodeId));
+  }
+
+  private Map<String, List<WebTemplateNode>> getAqlPathIndex(boolean withName) {
+    Map<String, List<WebTemplateNode>> index = withName ? aqlPathWithNameIndex : aqlPathIndex;
+    if (index == null) {
+      index = buildIndex(n -> new FlatPath(n.getAqlPath()).format(withName));
+      if (withName) {
+        aqlPathWithNameIndex = index;
+      } else {
+        aqlPathIndex = index;
+      }
+    }
+    return index;
+  }
+
+  /** Index all nodes of the tree by {@code key}, keeping the order of {@link WebTemplateNode#findMatching}. */
+  private Map<String, List<WebTemplateNode>> buildIndex(Function<WebTemplateNode, String> key) {
+    Map<String, List<WebTemplateNode>> index = new HashMap<>();
+    for (WebTemplateNode node : tree.findMatching(n -> true)) {
+      index.computeIfAbsent(key.apply(node), k -> new ArrayList<>()).add(node);
+    }
+    index.replaceAll((k, v) -> Collections.unmodifiableList(v));
+    return index;
+  }
+
+  /**
+   * Makes this WebTemplate and its whole tree read-only, so that one instance can be shared between
+   * threads. Use {@link WebTemplate#WebTemplate(WebTemplate)} to get a modifiable copy.
+   *
+   * <p>The tree is not normalised for any walker, so a walker walks a normalised copy of it. Use
+   * the {@code freeze} of the walker to get a template it can walk directly.
+   *
+   * @return this WebTemplate
+   */
+  public WebTemplate freeze() {
+    return freeze(null);
+  }
+
+  /**
+   * Like {@link #freeze()} but records that the tree has been normalised for the walker {@code
+   * normalisedFor}. Only that walker may skip the normalisation of the tree.
+   *
+   * @param normalisedFor the class of the walker which normalised the tree or {@code null}
+   * @return this WebTemplate
+   */
+  public WebTemplate freeze(Class<?> normalisedFor) {
+    if (!frozen) {
+      if (tree != null) {
+        tree.freeze(normalisedFor);
+      }
+      languages = Collections.unmodifiableList(languages);
+      frozen = true;
+    }
+    return this;
+  }
+
+  /**
+   * Returns the value derived from this frozen WebTemplate for {@code key}, computing it with
+   * {@code factory} on first use. The value is not copied by {@link
+   * WebTemplate#WebTemplate(WebTemplate)}.
+   *
+   * @param key the key of the derived value, e.g. the class of its consumer
+   * @param factory computes the value from this WebTemplate
+   * @param <V> the type of the value
+   * @return the cached or computed value
+   * @throws UnsupportedOperationException if this WebTemplate is not frozen
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V computeDerivedIfAbsent(
+      Object key, Function<? super WebTemplate, ? extends V> factory) {
+    if (!frozen) {
+      throw new UnsupportedOperationException(
+          String.format("WebTemplate %s is not frozen", templateId));
+    }
+    ConcurrentMap<Object, Object> map = derived;
+    if (map == null) {
+      synchronized (this) {
+        map = derived;
+        if (map == null) {
+          map = new ConcurrentHashMap<>();
+          derived = map;
+        }
+      }
+    }
+    return (V) map.computeIfAbsent(key, k -> factory.apply(this));
+  }
+
+  @JsonIgnore
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * @return the class of the walker this frozen WebTemplate was normalised for or {@code null} if
+   *     it was not normalised for any
+   */
+  @JsonIgnore
+  public Class<?> getNormalisedFor() {
+    return tree != null ? tree.getNormalisedFor() : null;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new UnsupportedOperationException(
+          String.format("WebTemplate %s is frozen", templateId));
+    }
   }
 
   public Set<Set<NodeId>> findAllContainmentCombinations() {
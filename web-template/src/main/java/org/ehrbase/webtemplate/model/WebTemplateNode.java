@@ -26,6 +26,7 @@ import com.nedap.archie.rm.archetyped.Locatable;
 import com.nedap.archie.rminfo.ArchieRMInfoLookup;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,20 +50,28 @@ public class WebTemplateNode implements Serializable {
   private String nodeId;
   private int min;
   private int max;
-  private final Map<String, String> localizedNames = new HashMap<>();
-  private final Map<String, String> localizedDescriptions = new HashMap<>();
+  private Map<String, String> localizedNames = new HashMap<>();
+  private Map<String, String> localizedDescriptions = new HashMap<>();
 
   @JsonSerialize(using = AqlPathSerializer.class)
   private String aqlPath;
 
-  private final List<WebTemplateNode> children = new ArrayList<>();
-  private final List<WebTemplateInput> inputs = new ArrayList<>();
+  private List<WebTemplateNode> children = new ArrayList<>();
+  private List<WebTemplateInput> inputs = new ArrayList<>();
   private Boolean inContext;
-  private final Map<String, WebTemplateTerminology> termBindings = new HashMap<>();
-  private final List<String> dependsOn = new ArrayList<>();
+  private Map<String, WebTemplateTerminology> termBindings = new HashMap<>();
+  private List<String> dependsOn = new ArrayList<>();
   private WebTemplateAnnotation annotations;
-  private final List<ProportionType> proportionTypes = new ArrayList<>();
-  private final List<WebtemplateCardinality> cardinalities = new ArrayList<>();
+  private List<ProportionType> proportionTypes = new ArrayList<>();
+  private List<WebtemplateCardinality> cardinalities = new ArrayList<>();
+  @JsonIgnore private boolean frozen;
+  @JsonIgnore private Class<?> normalisedFor;
+  // only built for frozen nodes
+  private transient volatile Map<String, WebTemplateNode> childIdIndex;
+  // only cached for frozen nodes, since the hash covers the whole subtree
+  private transient int hash;
+  private transient String aqlPathWithPredicates;
+  private transient String aqlPathWithoutPredicates;
 
   public WebTemplateNode() {}
 
@@ -76,6 +85,8 @@ public class WebTemplateNode implements Serializable {
     this.min = other.min;
     this.max = other.max;
     this.aqlPath = other.aqlPath;
+    this.aqlPathWithPredicates = other.aqlPathWithPredicates;
+    this.aqlPathWithoutPredicates = other.aqlPathWithoutPredicates;
     this.inContext = other.inContext;
     this.dependsOn.addAll(other.dependsOn);
     if (other.annotations != null) {
@@ -113,10 +124,12 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setOptionalIdNumber(Integer optionalIdNumber) {
+    checkNotFrozen();
     this.optionalIdNumber = optionalIdNumber;
   }
 
   public void setId(String id) {
+    checkNotFrozen();
     this.id = id;
   }
 
@@ -125,6 +138,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setName(String name) {
+    checkNotFrozen();
     this.name = name;
   }
 
@@ -133,6 +147,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setLocalizedName(String localizedName) {
+    checkNotFrozen();
     this.localizedName = localizedName;
   }
 
@@ -141,6 +156,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setRmType(String rmType) {
+    checkNotFrozen();
     this.rmType = rmType;
   }
 
@@ -149,6 +165,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setNodeId(String nodeId) {
+    checkNotFrozen();
     this.nodeId = nodeId;
   }
 
@@ -157,6 +174,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setMin(int min) {
+    checkNotFrozen();
     this.min = min;
   }
 
@@ -165,6 +183,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setMax(int max) {
+    checkNotFrozen();
     this.max = max;
   }
 
@@ -181,13 +200,29 @@ public class WebTemplateNode implements Serializable {
   }
 
   public String getAqlPath(boolean withOtherPredicates) {
-    return new FlatPath(aqlPath).format(withOtherPredicates);
+    String path = withOtherPredicates ? aqlPathWithPredicates : aqlPathWithoutPredicates;
+    if (path == null) {
+      path = new FlatPath(aqlPath).format(withOtherPredicates);
+      if (withOtherPredicates) {
+        aqlPathWithPredicates = path;
+      } else {
+        aqlPathWithoutPredicates = path;
+      }
+    }
+    return path;
   }
 
   public void setAqlPath(String aqlPath) {
+    checkNotFrozen();
     this.aqlPath = aqlPath;
+    this.aqlPathWithPredicates = null;
+    this.aqlPathWithoutPredicates = null;
   }
 
+  /**
+   * @return the children of this node. The list is read-only if this node is {@link #isFrozen()
+   *     frozen}.
+   */
   public List<WebTemplateNode> getChildren() {
     return children;
   }
@@ -215,6 +250,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setInContext(Boolean inContext) {
+    checkNotFrozen();
     this.inContext = inContext;
   }
 
@@ -231,6 +267,7 @@ public class WebTemplateNode implements Serializable {
   }
 
   public void setAnnotations(WebTemplateAnnotation annotations) {
+    checkNotFrozen();
     this.annotations = annotations;
   }
 
@@ -239,6 +276,17 @@ public class WebTemplateNode implements Serializable {
   }
 
   public Optional<WebTemplateNode> findChildById(String id) {
+    if (frozen) {
+      Map<String, WebTemplateNode> index = childIdIndex;
+      if (index == null) {
+        index = new HashMap<>();
+        for (WebTemplateNode child : children) {
+          index.putIfAbsent(child.getId(), child);
+        }
+        childIdIndex = index;
+      }
+      return Optional.ofNullable(index.get(id));
+    }
     return children.stream().filter(n -> n.getId().equals(id)).findAny();
   }
 
@@ -313,11 +361,69 @@ public class WebTemplateNode implements Serializable {
     return max != 1;
   }
 
+  /**
+   * Makes this node and all its descendants read-only. A frozen node can be shared between threads.
+   * Use {@link WebTemplateNode#WebTemplateNode(WebTemplateNode)} to get a modifiable copy.
+   *
+   * @return this node
+   */
+  public WebTemplateNode freeze() {
+    return freeze(null);
+  }
+
+  /**
+   * Like {@link #freeze()} but records that the tree below this node has been normalised for the
+   * walker {@code normalisedFor}.
+   *
+   * @param normalisedFor the class of the walker which normalised the tree or {@code null}
+   * @return this node
+   */
+  public WebTemplateNode freeze(Class<?> normalisedFor) {
+    if (!frozen) {
+      this.normalisedFor = normalisedFor;
+      children.forEach(c -> c.freeze(normalisedFor));
+      children = Collections.unmodifiableList(children);
+      inputs = Collections.unmodifiableList(inputs);
+      localizedNames = Collections.unmodifiableMap(localizedNames);
+      localizedDescriptions = Collections.unmodifiableMap(localizedDescriptions);
+      termBindings = Collections.unmodifiableMap(termBindings);
+      dependsOn = Collections.unmodifiableList(dependsOn);
+      proportionTypes = Collections.unmodifiableList(proportionTypes);
+      cardinalities = Collections.unmodifiableList(cardinalities);
+      frozen = true;
+    }
+    return this;
+  }
+
+  @JsonIgnore
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * @return the class of the walker this frozen node was normalised for or {@code null} if it was
+   *     not normalised for any
+   */
+  @JsonIgnore
+  public Class<?> getNormalisedFor() {
+    return normalisedFor;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new UnsupportedOperationException(
+          String.format("WebTemplateNode %s is frozen", aqlPath));
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     WebTemplateNode that = (WebTemplateNode) o;
+    if (frozen && that.frozen && hashCode() != that.hashCode()) {
+      return false;
+    }
     return min == that.min
         && max == that.max
         && Objects.equals(id, that.id)
@@ -341,6 +447,18 @@ public class WebTemplateNode implements Serializable {
 
   @Override
   public int hashCode() {
+    if (frozen) {
+      int h = hash;
+      if (h == 0) {
+        h = computeHashCode();
+        hash = h;
+      }
+      return h;
+    }
+    return computeHashCode();
+  }
+
+  private int computeHashCode() {
     return Objects.hash(
         id,
         optionalIdNumber,
@@ -29,19 +29,14 @@ import com.nedap.archie.rminfo.ArchieRMInfoLookup;
 import com.nedap.archie.rminfo.RMAttributeInfo;
 import com.nedap.archie.rminfo.RMTypeInfo;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
-import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlObject;
-import org.apache.xmlbeans.XmlTokenSource;
 import org.ehrbase.terminology.client.terminology.TermDefinition;
 import org.ehrbase.terminology.client.terminology.TerminologyProvider;
 import org.ehrbase.terminology.client.terminology.ValueSet;
 import org.ehrbase.util.exception.SdkException;
 import org.ehrbase.webtemplate.model.*;
 import org.openehr.schemas.v1.*;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import java.util.*;
 import java.util.function.Function;
@@ -57,6 +52,7 @@ public class OPTParser {
   public static final String CURRENT_STATE = "current_state";
 
   private final OPERATIONALTEMPLATE operationaltemplate;
+  private final OptIndex optIndex;
   private final String defaultLanguage;
   private final Map<String, String> defaultValues = new HashMap<>();
   private final InputHandler inputHandler = new InputHandler(defaultValues);
@@ -65,12 +61,8 @@ public class OPTParser {
   public OPTParser(OPERATIONALTEMPLATE operationaltemplate) {
     this.operationaltemplate = operationaltemplate;
     defaultLanguage = operationaltemplate.getLanguage().getCodeString();
-    Arrays.stream(extractChildren(operationaltemplate, "constraints"))
-        .map(c -> extractChildren(c, "attributes"))
-        .flatMap(Arrays::stream)
-        .map(this::extractDefault)
-        .flatMap(List::stream)
-        .forEach(p -> defaultValues.put(p.getKey(), p.getValue()));
+    optIndex = OptIndex.of(operationaltemplate);
+    defaultValues.putAll(optIndex.getDefaultValues());
   }
 
   public WebTemplate parse() {
@@ -97,72 +89,6 @@ public class OPTParser {
     return c.selectChildren("http://schemas.openehr.org/v1", attributes);
   }
 
-  private List<Pair<String, String>> extractDefault(XmlObject xmlObject) {
-    List<Pair<String, String>> defaults = new ArrayList<>();
-
-    String differential_path =
-        StringUtils.substringAfter(
-            extractChildren(xmlObject, "differential_path")[0].newCursor().getTextValue(), "/");
-    String rm_attribute_name =
-        extractChildren(xmlObject, "rm_attribute_name")[0].newCursor().getTextValue();
-    String aql = "/" + differential_path + "/" + rm_attribute_name;
-    List<String> attributeNames =
-        Arrays.stream(extractChildren(xmlObject, "children"))
-            .map(x -> extractChildren(x, "default_value"))
-            .flatMap(Arrays::stream)
-            .map(XmlTokenSource::newDomNode)
-            .map(Node::getFirstChild)
-            .map(Node::getChildNodes)
-            .map(this::buildList)
-            .flatMap(List::stream)
-            .map(Node::getNodeName)
-            .collect(Collectors.toList());
-
-    attributeNames.forEach(
-        n -> {
-          Optional<XmlObject> any =
-              Arrays.stream(extractChildren(xmlObject, "children"))
-                  .map(x -> extractChildren(x, "default_value"))
-                  .flatMap(Arrays::stream)
-                  .map(x -> extractChildren(x, n))
-                  .flatMap(Arrays::stream)
-                  .findAny();
-          if (any.isPresent()) {
-            if (any.get().newDomNode().getFirstChild().getChildNodes().getLength() == 1) {
-
-              String defaultValue = any.get().newCursor().getTextValue();
-
-              defaults.add(new ImmutablePair<>(aql + "|" + n, defaultValue));
-            } else {
-              String defaultValue =
-                  Arrays.stream(extractChildren(any.get(), "defining_code"))
-                      .findAny()
-                      .map(x -> extractChildren(x, "code_string"))
-                      .stream()
-                      .flatMap(Arrays::stream)
-                      .map(XmlTokenSource::newCursor)
-                      .map(XmlCursor::getTextValue)
-                      .findAny()
-                      .orElse("");
-              defaults.add(new ImmutablePair<>(aql + "|" + "defining_code", defaultValue));
-            }
-          }
-        });
-    return defaults;
-  }
-
-  private List<Node> buildList(NodeList list) {
-
-    List<Node> nodes = new ArrayList<>();
-    for (int i = 0; i < list.getLength(); i++) {
-      Node item = list.item(i);
-      if (item.getNodeType() == 1) {
-        nodes.add(item);
-      }
-    }
-    return nodes;
-  }
-
   private WebTemplateNode parseCARCHETYPEROO(CARCHETYPEROOT carchetyperoot, String aqlPath) {
 
     // extract local Terminologies
@@ -200,54 +126,7 @@ public class OPTParser {
   }
 
   private Map<String, Map<String, TermDefinition>> buildOtherTerms(String archetypeId) {
-    Map<String, Map<String, TermDefinition>> otherTermDefinitionMap = new HashMap<>();
-    List<XmlObject> ontologies = new ArrayList<>();
-    ontologies.addAll(
-        Arrays.stream(extractChildren(operationaltemplate, "ontology"))
-            .filter(
-                x ->
-                    x.selectAttribute("", "archetype_id")
-                        .newCursor()
-                        .getTextValue()
-                        .equals(archetypeId))
-            .map(x -> extractChildren(x, "term_definitions"))
-            .flatMap(Arrays::stream)
-            .collect(Collectors.toList()));
-    ontologies.addAll(
-        Arrays.stream(extractChildren(operationaltemplate, "component_ontologies"))
-            .filter(
-                x ->
-                    x.selectAttribute("", "archetype_id")
-                        .newCursor()
-                        .getTextValue()
-                        .equals(archetypeId))
-            .map(x -> extractChildren(x, "term_definitions"))
-            .flatMap(Arrays::stream)
-            .collect(Collectors.toList()));
-
-    for (XmlObject term : ontologies) {
-      String language = term.selectAttribute("", "language").newCursor().getTextValue();
-
-      for (XmlObject items : extractChildren(term, "items")) {
-        String code = items.selectAttribute("", "code").newCursor().getTextValue();
-        String text = "";
-        String description = "";
-        for (XmlObject item : extractChildren(items, "items")) {
-          String id = item.selectAttribute("", "id").newCursor().getTextValue();
-          String value = item.newCursor().getTextValue();
-          if (Objects.equals(id, "text")) {
-            text = value;
-          } else if (Objects.equals(id, "description")) {
-            description = value;
-          }
-        }
-        Map<String, TermDefinition> termDefinitionMap =
-            otherTermDefinitionMap.computeIfAbsent(code, c -> new HashMap<>());
-        termDefinitionMap.put(language, new TermDefinition(code, text, description));
-      }
-    }
-
-    return otherTermDefinitionMap;
+    return optIndex.getTermDefinitions(archetypeId);
   }
 
   private WebTemplateNode parseCCOMPLEXOBJECT(
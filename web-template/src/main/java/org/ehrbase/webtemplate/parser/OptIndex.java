@@ -0,0 +1,349 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.webtemplate.parser;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.xmlbeans.XmlObject;
+import org.ehrbase.terminology.client.terminology.TermDefinition;
+import org.ehrbase.util.exception.SdkException;
+import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The default values from the template <code>constraints</code> and the term definitions from the <code>ontology</code>
+ * and <code>component_ontologies</code> of an OPT, read with StAX over the XMLBeans store.
+ * <p>
+ * Reading them through the XMLBeans object model materialises DOM fragments and cursors for every attribute and
+ * rescans all ontologies for every archetype root.
+ */
+class OptIndex {
+
+  static final String OPENEHR_NAMESPACE = "http://schemas.openehr.org/v1";
+
+  private final Map<String, String> defaultValues = new HashMap<>();
+  private final Map<String, Map<String, Map<String, TermDefinition>>> termDefinitions =
+      new HashMap<>();
+
+  private OptIndex() {}
+
+  /**
+   * Only the <code>constraints</code>, <code>ontology</code> and <code>component_ontologies</code> of {@code
+   * operationaltemplate} are read, the definition is not indexed.
+   *
+   * @param operationaltemplate the parsed OPT
+   * @return the index of {@code operationaltemplate}
+   */
+  static OptIndex of(OPERATIONALTEMPLATE operationaltemplate) {
+    OptIndex index = new OptIndex();
+    try {
+      for (XmlObject constraints :
+          operationaltemplate.selectChildren(OPENEHR_NAMESPACE, "constraints")) {
+        index.readConstraints(constraints.newXMLStreamReader());
+      }
+      for (String element : List.of("ontology", "component_ontologies")) {
+        for (XmlObject ontology : operationaltemplate.selectChildren(OPENEHR_NAMESPACE, element)) {
+          XmlObject archetypeId = ontology.selectAttribute("", "archetype_id");
+          index.readOntology(
+              ontology.newXMLStreamReader(),
+              archetypeId != null ? archetypeId.newCursor().getTextValue() : null);
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new SdkException(e.getMessage(), e);
+    }
+    return index;
+  }
+
+  /**
+   * @return the default values by <code>aqlPath|rmAttributeName</code>
+   */
+  Map<String, String> getDefaultValues() {
+    return Collections.unmodifiableMap(defaultValues);
+  }
+
+  /**
+   * @param archetypeId the archetype id of a archetype root
+   * @return the term definitions of the archetype by code and language
+   */
+  Map<String, Map<String, TermDefinition>> getTermDefinitions(String archetypeId) {
+    return termDefinitions.getOrDefault(archetypeId, Collections.emptyMap());
+  }
+
+  private void readConstraints(XMLStreamReader reader) throws XMLStreamException {
+    while (nextChild(reader)) {
+      if (isOpenEhr(reader, "attributes")) {
+        readConstraintAttribute(reader);
+      } else {
+        skipElement(reader);
+      }
+    }
+  }
+
+  private void readConstraintAttribute(XMLStreamReader reader) throws XMLStreamException {
+    String differentialPath = null;
+    String rmAttributeName = null;
+    List<DefaultValueItem> items = new ArrayList<>();
+
+    while (nextChild(reader)) {
+      if (isOpenEhr(reader, "differential_path")) {
+        String text = readText(reader);
+        differentialPath = differentialPath == null ? text : differentialPath;
+      } else if (isOpenEhr(reader, "rm_attribute_name")) {
+        String text = readText(reader);
+        rmAttributeName = rmAttributeName == null ? text : rmAttributeName;
+      } else if (isOpenEhr(reader, "children")) {
+        readConstraintChild(reader, items);
+      } else {
+        skipElement(reader);
+      }
+    }
+
+    if (differentialPath == null || rmAttributeName == null) {
+      throw new SdkException("Template constraint without differential_path or rm_attribute_name");
+    }
+
+    String aql =
+        "/" + StringUtils.substringAfter(differentialPath, "/") + "/" + rmAttributeName;
+    for (DefaultValueItem item : items) {
+      items.stream()
+          .filter(i -> i.openEhr && i.localName.equals(item.nodeName))
+          .findFirst()
+          .ifPresent(
+              any -> {
+                if (any.childNodeCount == 1) {
+                  defaultValues.put(aql + "|" + item.nodeName, any.text);
+                } else {
+                  defaultValues.put(aql + "|" + "defining_code", any.codeString);
+                }
+              });
+    }
+  }
+
+  private void readConstraintChild(XMLStreamReader reader, List<DefaultValueItem> items)
+      throws XMLStreamException {
+    while (nextChild(reader)) {
+      if (isOpenEhr(reader, "default_value")) {
+        while (nextChild(reader)) {
+          items.add(readDefaultValueItem(reader));
+        }
+      } else {
+        skipElement(reader);
+      }
+    }
+  }
+
+  private DefaultValueItem readDefaultValueItem(XMLStreamReader reader)
+      throws XMLStreamException {
+    DefaultValueItem item = new DefaultValueItem();
+    item.localName = reader.getLocalName();
+    item.nodeName =
+        StringUtils.isEmpty(reader.getPrefix())
+            ? reader.getLocalName()
+            : reader.getPrefix() + ":" + reader.getLocalName();
+    item.openEhr = isOpenEhr(reader);
+
+    StringBuilder text = new StringBuilder();
+    boolean inText = false;
+    boolean definingCodeFound = false;
+    int event;
+    while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+      if (isText(event)) {
+        if (!inText && reader.getTextLength() > 0) {
+          item.childNodeCount++;
+          inText = true;
+        }
+        text.append(reader.getText());
+      } else {
+        inText = false;
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          item.childNodeCount++;
+          if (!definingCodeFound && isOpenEhr(reader, "defining_code")) {
+            definingCodeFound = true;
+            item.codeString = readCodeString(reader, text);
+          } else {
+            text.append(readText(reader));
+          }
+        } else if (event == XMLStreamConstants.COMMENT
+            || event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+          item.childNodeCount++;
+        }
+      }
+    }
+    item.text = text.toString();
+    return item;
+  }
+
+  private String readCodeString(XMLStreamReader reader, StringBuilder text)
+      throws XMLStreamException {
+    String codeString = null;
+    int event;
+    while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+      if (isText(event)) {
+        text.append(reader.getText());
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        boolean isCodeString = codeString == null && isOpenEhr(reader, "code_string");
+        String childText = readText(reader);
+        text.append(childText);
+        if (isCodeString) {
+          codeString = childText;
+        }
+      }
+    }
+    return codeString != null ? codeString : "";
+  }
+
+  private void readOntology(XMLStreamReader reader, String archetypeId)
+      throws XMLStreamException {
+    while (nextChild(reader)) {
+      if (archetypeId != null && isOpenEhr(reader, "term_definitions")) {
+        String language = attributeValue(reader, "language");
+        Map<String, Map<String, TermDefinition>> archetypeTerms =
+            termDefinitions.computeIfAbsent(archetypeId, a -> new HashMap<>());
+        while (nextChild(reader)) {
+          if (isOpenEhr(reader, "items")) {
+            TermDefinition termDefinition = readTerm(reader);
+            archetypeTerms
+                .computeIfAbsent(termDefinition.getCode(), c -> new HashMap<>())
+                .put(language, termDefinition);
+          } else {
+            skipElement(reader);
+          }
+        }
+      } else {
+        skipElement(reader);
+      }
+    }
+  }
+
+  private TermDefinition readTerm(XMLStreamReader reader) throws XMLStreamException {
+    String code = attributeValue(reader, "code");
+    String text = "";
+    String description = "";
+    while (nextChild(reader)) {
+      if (isOpenEhr(reader, "items")) {
+        String id = attributeValue(reader, "id");
+        String value = readText(reader);
+        if (Objects.equals(id, "text")) {
+          text = value;
+        } else if (Objects.equals(id, "description")) {
+          description = value;
+        }
+      } else {
+        skipElement(reader);
+      }
+    }
+    return new TermDefinition(code, text, description);
+  }
+
+  /**
+   * The reader of the XMLBeans store rejects {@link XMLStreamReader#getAttributeValue(String, String)} for absent
+   * attributes, so the attributes are searched by index.
+   */
+  private static String attributeValue(XMLStreamReader reader, String localName) {
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      if (localName.equals(reader.getAttributeLocalName(i))
+          && StringUtils.isEmpty(reader.getAttributeNamespace(i))) {
+        return reader.getAttributeValue(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Moves to the next child element of the current element, or of the fragment of a reader created by {@link
+   * XmlObject#newXMLStreamReader()}.
+   *
+   * @return {@code false} at the end of the current element or fragment
+   */
+  private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT
+          || event == XMLStreamConstants.END_DOCUMENT) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /** Reads the concatenated text of the current element and all its descendants. */
+  private static String readText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder sb = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if (isText(event)) {
+        sb.append(reader.getText());
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static boolean isText(int event) {
+    return event == XMLStreamConstants.CHARACTERS
+        || event == XMLStreamConstants.CDATA
+        || event == XMLStreamConstants.SPACE;
+  }
+
+  private static boolean isOpenEhr(XMLStreamReader reader) {
+    return OPENEHR_NAMESPACE.equals(reader.getNamespaceURI());
+  }
+
+  private static boolean isOpenEhr(XMLStreamReader reader, String localName) {
+    return localName.equals(reader.getLocalName()) && isOpenEhr(reader);
+  }
+
+  /** A child element of a <code>default_value</code>. */
+  private static class DefaultValueItem {
+    private String localName;
+    private String nodeName;
+    private boolean openEhr;
+    private int childNodeCount;
+    private String text;
+    private String codeString = "";
+  }
+}
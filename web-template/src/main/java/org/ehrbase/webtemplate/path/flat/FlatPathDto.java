@@ -31,6 +31,8 @@ public class FlatPathDto {
   private FlatPathDto child;
   private String attributeName;
   private Integer count;
+  // not copied, a copy may be changed into another path
+  private int ordinal = -1;
 
   public FlatPathDto() {}
 
@@ -80,6 +82,18 @@ public class FlatPathDto {
     this.count = count;
   }
 
+  /**
+   * @return the position of this path in the flat input it was read from or {@code -1} if it was
+   *     not read from an input
+   */
+  public int getOrdinal() {
+    return ordinal;
+  }
+
+  public void setOrdinal(int ordinal) {
+    this.ordinal = ordinal;
+  }
+
   public String format() {
     StringBuilder sb = new StringBuilder();
 
@@ -0,0 +1,133 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.webtemplate.path.flat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A trie of the segments (name, count, attribute) of the keys of a flat map.
+ * <p>
+ * {@link #findStartsWith(FlatPathDto)} returns the same entries as filtering the map with {@link
+ * FlatPathDto#startsWith(String)}, but only visits the segments on the way to the matching
+ * subtrees.
+ *
+ * @param <T> the type of the values
+ */
+public class FlatPathIndex<T> {
+
+  private final Node<T> root = new Node<>(null, null);
+
+  public FlatPathIndex(Map<FlatPathDto, T> map) {
+    map.entrySet().forEach(this::add);
+  }
+
+  private void add(Map.Entry<FlatPathDto, T> entry) {
+    Node<T> node = root;
+    node.entries.add(entry);
+    for (FlatPathDto segment = entry.getKey(); segment != null; segment = segment.getChild()) {
+      node = node.getOrAddChild(segment);
+      node.entries.add(entry);
+    }
+  }
+
+  /**
+   * @param path the prefix
+   * @return all entries whose key starts with {@code path} in the sense of {@link
+   *     FlatPathDto#startsWith(String)}
+   */
+  public List<Map.Entry<FlatPathDto, T>> findStartsWith(String path) {
+    return findStartsWith(new FlatPathDto(path));
+  }
+
+  /**
+   * @param path the prefix
+   * @return all entries whose key starts with {@code path} in the sense of {@link
+   *     FlatPathDto#startsWith(String)}
+   */
+  public List<Map.Entry<FlatPathDto, T>> findStartsWith(FlatPathDto path) {
+    List<Node<T>> matching = Collections.singletonList(root);
+    for (FlatPathDto segment = path; segment != null; segment = segment.getChild()) {
+      List<Node<T>> next = new ArrayList<>();
+      for (Node<T> node : matching) {
+        for (Node<T> child : node.children.getOrDefault(segment.getName(), Collections.emptyList())) {
+          if (child.matches(segment)) {
+            next.add(child);
+          }
+        }
+      }
+      if (next.isEmpty()) {
+        return Collections.emptyList();
+      }
+      matching = next;
+    }
+
+    if (matching.size() == 1) {
+      return Collections.unmodifiableList(matching.get(0).entries);
+    }
+    List<Map.Entry<FlatPathDto, T>> entries = new ArrayList<>();
+    matching.forEach(n -> entries.addAll(n.entries));
+    return entries;
+  }
+
+  private static class Node<T> {
+
+    private final Integer count;
+    private final String attributeName;
+    private final Map<String, List<Node<T>>> children = new HashMap<>();
+    private final List<Map.Entry<FlatPathDto, T>> entries = new ArrayList<>();
+
+    private Node(Integer count, String attributeName) {
+      this.count = count;
+      this.attributeName = attributeName;
+    }
+
+    private Node<T> getOrAddChild(FlatPathDto segment) {
+      List<Node<T>> sameName = children.computeIfAbsent(segment.getName(), n -> new ArrayList<>(1));
+      for (Node<T> child : sameName) {
+        if (Objects.equals(child.count, segment.getCount())
+            && Objects.equals(child.attributeName, segment.getAttributeName())) {
+          return child;
+        }
+      }
+      Node<T> child = new Node<>(segment.getCount(), segment.getAttributeName());
+      sameName.add(child);
+      return child;
+    }
+
+    /** Same rules as {@link FlatPathDto#startsWith(String)} for a single segment. */
+    private boolean matches(FlatPathDto segment) {
+      if (segment.getAttributeName() != null
+          && !Objects.equals(attributeName, segment.getAttributeName())) {
+        return false;
+      }
+      if (segment.getChild() == null && segment.getCount() == null) {
+        return true;
+      }
+      return Objects.equals(count, segment.getCount())
+          || (count == null && Objects.equals(segment.getCount(), 0))
+          || (Objects.equals(count, 0) && segment.getCount() == null);
+    }
+  }
+}
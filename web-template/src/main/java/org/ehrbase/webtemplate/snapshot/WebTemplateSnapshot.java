@@ -0,0 +1,587 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.webtemplate.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.ehrbase.util.exception.SdkException;
+import org.ehrbase.webtemplate.model.ProportionType;
+import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.model.WebTemplateAnnotation;
+import org.ehrbase.webtemplate.model.WebTemplateComparisonSymbol;
+import org.ehrbase.webtemplate.model.WebTemplateInput;
+import org.ehrbase.webtemplate.model.WebTemplateInputValue;
+import org.ehrbase.webtemplate.model.WebTemplateInterval;
+import org.ehrbase.webtemplate.model.WebTemplateNode;
+import org.ehrbase.webtemplate.model.WebTemplateTerminology;
+import org.ehrbase.webtemplate.model.WebTemplateValidation;
+import org.ehrbase.webtemplate.model.WebtemplateCardinality;
+
+/**
+ * Compact binary snapshot of a parsed {@link WebTemplate}, used to skip OPT parsing at startup.
+ *
+ * <p>A snapshot consists of a header (magic, format version and a caller defined fingerprint of
+ * the source template), a table of all distinct strings and the nodes of the tree in pre-order,
+ * which reference the strings by index. Snapshots are read through a memory-mapped buffer, so the
+ * header can be checked without decoding the tree.
+ */
+public class WebTemplateSnapshot {
+
+  /** "EWTS" */
+  private static final int MAGIC = 0x45575453;
+
+  /** Has to be increased with every change of the binary layout. */
+  static final int FORMAT_VERSION = 1;
+
+  private static final int NULL = -1;
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_INTEGER = 1;
+  private static final byte TYPE_LONG = 2;
+  private static final byte TYPE_DOUBLE = 3;
+  private static final byte TYPE_FLOAT = 4;
+  private static final byte TYPE_STRING = 5;
+  private static final byte TYPE_BOOLEAN = 6;
+
+  private final ByteBuffer buffer;
+  private final int formatVersion;
+  private final String fingerprint;
+  private final int bodyPosition;
+
+  private WebTemplateSnapshot(ByteBuffer buffer) {
+    this.buffer = buffer;
+    if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+      throw new SdkException("Not a WebTemplate snapshot");
+    }
+    this.formatVersion = buffer.getInt();
+    this.fingerprint = formatVersion == FORMAT_VERSION ? readUtf(buffer) : null;
+    this.bodyPosition = buffer.position();
+  }
+
+  /**
+   * Opens the snapshot in {@code path}. The content is memory-mapped and only the header is read.
+   *
+   * @param path the snapshot file
+   * @return the opened snapshot
+   */
+  public static WebTemplateSnapshot open(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new WebTemplateSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } catch (IOException e) {
+      throw new SdkException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Reads a snapshot from {@code bytes}.
+   *
+   * @param bytes the snapshot as written by {@link #write(WebTemplate, String, OutputStream)}
+   * @return the snapshot
+   */
+  public static WebTemplateSnapshot of(byte[] bytes) {
+    return new WebTemplateSnapshot(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * @return true if the snapshot was written in the format version of this class and can be read.
+   */
+  public boolean isSupportedFormat() {
+    return formatVersion == FORMAT_VERSION;
+  }
+
+  /** @return the fingerprint of the source template given when the snapshot was written. */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Decodes the {@link WebTemplate}. Every call returns a new, modifiable instance.
+   *
+   * @return the decoded WebTemplate
+   */
+  public WebTemplate readWebTemplate() {
+    if (!isSupportedFormat()) {
+      throw new SdkException(
+          String.format("Unsupported WebTemplate snapshot format %d", formatVersion));
+    }
+    return new Reader(buffer.duplicate().position(bodyPosition)).readWebTemplate();
+  }
+
+  /**
+   * Writes the snapshot of {@code webTemplate} to {@code path}. The file is replaced atomically, so
+   * concurrent readers never see a partially written snapshot.
+   *
+   * @param webTemplate the WebTemplate to write
+   * @param fingerprint identifies the version of the source template, e.g. a checksum of the OPT
+   * @param path the snapshot file
+   */
+  public static void write(WebTemplate webTemplate, String fingerprint, Path path) {
+    try {
+      Path directory = path.toAbsolutePath().getParent();
+      Files.createDirectories(directory);
+      Path tmp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+      try {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+          write(webTemplate, fingerprint, out);
+        }
+        Files.move(
+            tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      throw new SdkException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Writes the snapshot of {@code webTemplate} to {@code out}.
+   *
+   * @param webTemplate the WebTemplate to write
+   * @param fingerprint identifies the version of the source template, e.g. a checksum of the OPT
+   * @param out the stream to write to. It is not closed.
+   */
+  public static void write(WebTemplate webTemplate, String fingerprint, OutputStream out)
+      throws IOException {
+
+    // The body is written first, so that the string table is complete when the header is written.
+    Writer writer = new Writer();
+    writer.writeWebTemplate(webTemplate);
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(FORMAT_VERSION);
+    writeUtf(data, fingerprint);
+    data.writeInt(writer.strings.size());
+    for (String s : writer.strings.keySet()) {
+      writeUtf(data, s);
+    }
+    writer.body.writeTo(data);
+    data.flush();
+  }
+
+  private static void writeUtf(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(NULL);
+    } else {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readUtf(ByteBuffer in) {
+    int length = in.getInt();
+    if (length == NULL) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class Writer {
+
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(body);
+
+    void writeWebTemplate(WebTemplate webTemplate) throws IOException {
+      writeString(webTemplate.getTemplateId());
+      writeString(webTemplate.getVersion());
+      writeString(webTemplate.getDefaultLanguage());
+      writeStrings(webTemplate.getLanguages());
+      out.writeBoolean(webTemplate.getTree() != null);
+      if (webTemplate.getTree() != null) {
+        writeNode(webTemplate.getTree());
+      }
+    }
+
+    private void writeNode(WebTemplateNode node) throws IOException {
+      String id = node.getId(false);
+      writeString(id);
+      // the optional id number is only exposed as suffix of the id
+      String idWithNumber = node.getId(true);
+      writeInteger(
+          id == null || id.equals(idWithNumber)
+              ? null
+              : Integer.valueOf(idWithNumber.substring(id.length())));
+      writeString(node.getName());
+      writeString(node.getLocalizedName());
+      writeString(node.getRmType());
+      writeString(node.getNodeId());
+      out.writeInt(node.getMin());
+      out.writeInt(node.getMax());
+      writeStringMap(node.getLocalizedNames());
+      writeStringMap(node.getLocalizedDescriptions());
+      writeString(node.getAqlPath());
+      writeBoolean(node.getInContext());
+      writeTermBindings(node.getTermBindings());
+      writeStrings(node.getDependsOn());
+      writeAnnotation(node.getAnnotations());
+      out.writeInt(node.getProportionTypes().size());
+      for (ProportionType proportionType : node.getProportionTypes()) {
+        out.writeInt(proportionType.getId());
+      }
+      out.writeInt(node.getCardinalities().size());
+      for (WebtemplateCardinality cardinality : node.getCardinalities()) {
+        writeInteger(cardinality.getMin());
+        writeInteger(cardinality.getMax());
+        writeStrings(cardinality.getIds());
+      }
+      out.writeInt(node.getInputs().size());
+      for (WebTemplateInput input : node.getInputs()) {
+        writeInput(input);
+      }
+      out.writeInt(node.getChildren().size());
+      for (WebTemplateNode child : node.getChildren()) {
+        writeNode(child);
+      }
+    }
+
+    private void writeInput(WebTemplateInput input) throws IOException {
+      writeString(input.getSuffix());
+      writeString(input.getType());
+      out.writeInt(input.getList().size());
+      for (WebTemplateInputValue value : input.getList()) {
+        writeString(value.getValue());
+        writeString(value.getLabel());
+        writeStringMap(value.getLocalizedLabels());
+        writeStringMap(value.getLocalizedDescriptions());
+        writeTermBindings(value.getTermBindings());
+        writeInteger(value.getOrdinal());
+        writeStrings(value.getCurrentStates());
+        writeValidation(value.getValidation());
+      }
+      writeBoolean(input.getListOpen());
+      writeValidation(input.getValidation());
+      writeString(input.getTerminology());
+      writeString(input.getDefaultValue());
+    }
+
+    private void writeValidation(WebTemplateValidation validation) throws IOException {
+      out.writeBoolean(validation != null);
+      if (validation != null) {
+        writeInterval(validation.getPrecision());
+        writeInterval(validation.getRange());
+        writeString(validation.getPattern());
+      }
+    }
+
+    private void writeInterval(WebTemplateInterval<?> interval) throws IOException {
+      out.writeBoolean(interval != null);
+      if (interval != null) {
+        writeValue(interval.getMin());
+        writeSymbol(interval.getMinOp());
+        writeValue(interval.getMax());
+        writeSymbol(interval.getMaxOp());
+      }
+    }
+
+    private void writeSymbol(WebTemplateComparisonSymbol symbol) throws IOException {
+      out.writeByte(symbol != null ? symbol.ordinal() : NULL);
+    }
+
+    private void writeValue(Serializable value) throws IOException {
+      if (value == null) {
+        out.writeByte(TYPE_NULL);
+      } else if (value instanceof Integer) {
+        out.writeByte(TYPE_INTEGER);
+        out.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        out.writeByte(TYPE_LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof Double) {
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Float) {
+        out.writeByte(TYPE_FLOAT);
+        out.writeFloat((Float) value);
+      } else if (value instanceof String) {
+        out.writeByte(TYPE_STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(TYPE_BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else {
+        throw new SdkException(
+            String.format("Unsupported interval value %s", value.getClass().getSimpleName()));
+      }
+    }
+
+    private void writeAnnotation(WebTemplateAnnotation annotation) throws IOException {
+      out.writeBoolean(annotation != null);
+      if (annotation != null) {
+        writeString(annotation.getComment());
+        writeStringMap(annotation.getOther());
+      }
+    }
+
+    private void writeTermBindings(Map<String, WebTemplateTerminology> termBindings)
+        throws IOException {
+      out.writeInt(termBindings.size());
+      for (Map.Entry<String, WebTemplateTerminology> e : termBindings.entrySet()) {
+        writeString(e.getKey());
+        writeString(e.getValue().getValue());
+        writeString(e.getValue().getTerminologyId());
+      }
+    }
+
+    private void writeStringMap(Map<String, String> map) throws IOException {
+      out.writeInt(map.size());
+      for (Map.Entry<String, String> e : map.entrySet()) {
+        writeString(e.getKey());
+        writeString(e.getValue());
+      }
+    }
+
+    private void writeStrings(List<String> list) throws IOException {
+      out.writeInt(list.size());
+      for (String s : list) {
+        writeString(s);
+      }
+    }
+
+    private void writeInteger(Integer i) throws IOException {
+      out.writeBoolean(i != null);
+      if (i != null) {
+        out.writeInt(i);
+      }
+    }
+
+    private void writeBoolean(Boolean b) throws IOException {
+      out.writeByte(b == null ? NULL : b ? 1 : 0);
+    }
+
+    private void writeString(String s) throws IOException {
+      out.writeInt(s == null ? NULL : strings.computeIfAbsent(s, k -> strings.size()));
+    }
+  }
+
+  private static class Reader {
+
+    private final ByteBuffer in;
+    private final String[] strings;
+
+    Reader(ByteBuffer in) {
+      this.in = in;
+      strings = new String[in.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = readUtf(in);
+      }
+    }
+
+    WebTemplate readWebTemplate() {
+      WebTemplate webTemplate = new WebTemplate();
+      webTemplate.setTemplateId(readString());
+      webTemplate.setVersion(readString());
+      webTemplate.setDefaultLanguage(readString());
+      webTemplate.getLanguages().addAll(readStrings());
+      if (readFlag()) {
+        webTemplate.setTree(readNode());
+      }
+      return webTemplate;
+    }
+
+    private WebTemplateNode readNode() {
+      WebTemplateNode node = new WebTemplateNode();
+      node.setId(readString());
+      node.setOptionalIdNumber(readInteger());
+      node.setName(readString());
+      node.setLocalizedName(readString());
+      node.setRmType(readString());
+      node.setNodeId(readString());
+      node.setMin(in.getInt());
+      node.setMax(in.getInt());
+      readStringMap(node.getLocalizedNames());
+      readStringMap(node.getLocalizedDescriptions());
+      node.setAqlPath(readString());
+      node.setInContext(readBoolean());
+      readTermBindings(node.getTermBindings());
+      node.getDependsOn().addAll(readStrings());
+      node.setAnnotations(readAnnotation());
+      int proportionTypes = in.getInt();
+      for (int i = 0; i < proportionTypes; i++) {
+        node.getProportionTypes().add(ProportionType.findById(in.getInt()));
+      }
+      int cardinalities = in.getInt();
+      for (int i = 0; i < cardinalities; i++) {
+        WebtemplateCardinality cardinality = new WebtemplateCardinality();
+        cardinality.setMin(readInteger());
+        cardinality.setMax(readInteger());
+        cardinality.getIds().addAll(readStrings());
+        node.getCardinalities().add(cardinality);
+      }
+      int inputs = in.getInt();
+      for (int i = 0; i < inputs; i++) {
+        node.getInputs().add(readInput());
+      }
+      int children = in.getInt();
+      for (int i = 0; i < children; i++) {
+        node.getChildren().add(readNode());
+      }
+      return node;
+    }
+
+    private WebTemplateInput readInput() {
+      WebTemplateInput input = new WebTemplateInput();
+      input.setSuffix(readString());
+      input.setType(readString());
+      int values = in.getInt();
+      for (int i = 0; i < values; i++) {
+        WebTemplateInputValue value = new WebTemplateInputValue();
+        value.setValue(readString());
+        value.setLabel(readString());
+        readStringMap(value.getLocalizedLabels());
+        readStringMap(value.getLocalizedDescriptions());
+        readTermBindings(value.getTermBindings());
+        value.setOrdinal(readInteger());
+        value.getCurrentStates().addAll(readStrings());
+        value.setValidation(readValidation());
+        input.getList().add(value);
+      }
+      input.setListOpen(readBoolean());
+      input.setValidation(readValidation());
+      input.setTerminology(readString());
+      input.setDefaultValue(readString());
+      return input;
+    }
+
+    private WebTemplateValidation readValidation() {
+      if (!readFlag()) {
+        return null;
+      }
+      WebTemplateValidation validation = new WebTemplateValidation();
+      validation.setPrecision(readInterval());
+      validation.setRange(readInterval());
+      validation.setPattern(readString());
+      return validation;
+    }
+
+    private WebTemplateInterval<Serializable> readInterval() {
+      if (!readFlag()) {
+        return null;
+      }
+      WebTemplateInterval<Serializable> interval = new WebTemplateInterval<>();
+      interval.setMin(readValue());
+      interval.setMinOp(readSymbol());
+      interval.setMax(readValue());
+      interval.setMaxOp(readSymbol());
+      return interval;
+    }
+
+    private WebTemplateComparisonSymbol readSymbol() {
+      byte ordinal = in.get();
+      return ordinal == NULL ? null : WebTemplateComparisonSymbol.values()[ordinal];
+    }
+
+    private Serializable readValue() {
+      byte type = in.get();
+      switch (type) {
+        case TYPE_NULL:
+          return null;
+        case TYPE_INTEGER:
+          return in.getInt();
+        case TYPE_LONG:
+          return in.getLong();
+        case TYPE_DOUBLE:
+          return in.getDouble();
+        case TYPE_FLOAT:
+          return in.getFloat();
+        case TYPE_STRING:
+          return readString();
+        case TYPE_BOOLEAN:
+          return readFlag();
+        default:
+          throw new SdkException(String.format("Unknown interval value type %d", type));
+      }
+    }
+
+    private WebTemplateAnnotation readAnnotation() {
+      if (!readFlag()) {
+        return null;
+      }
+      WebTemplateAnnotation annotation = new WebTemplateAnnotation();
+      annotation.setComment(readString());
+      readStringMap(annotation.getOther());
+      return annotation;
+    }
+
+    private void readTermBindings(Map<String, WebTemplateTerminology> termBindings) {
+      int size = in.getInt();
+      for (int i = 0; i < size; i++) {
+        String key = readString();
+        WebTemplateTerminology terminology = new WebTemplateTerminology();
+        terminology.setValue(readString());
+        terminology.setTerminologyId(readString());
+        termBindings.put(key, terminology);
+      }
+    }
+
+    private void readStringMap(Map<String, String> map) {
+      int size = in.getInt();
+      for (int i = 0; i < size; i++) {
+        map.put(readString(), readString());
+      }
+    }
+
+    private List<String> readStrings() {
+      int size = in.getInt();
+      List<String> list = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(readString());
+      }
+      return list;
+    }
+
+    private Integer readInteger() {
+      return readFlag() ? in.getInt() : null;
+    }
+
+    private Boolean readBoolean() {
+      byte b = in.get();
+      return b == NULL ? null : b == 1;
+    }
+
+    private boolean readFlag() {
+      return in.get() != 0;
+    }
+
+    private String readString() {
+      int index = in.getInt();
+      return index == NULL ? null : strings[index];
+    }
+  }
+}
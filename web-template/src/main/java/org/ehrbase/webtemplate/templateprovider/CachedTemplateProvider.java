@@ -25,9 +25,17 @@ import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
 
 import javax.cache.Cache;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Wraps a {@link TemplateProvider} to provide caching.
+ * <p>
+ * Concurrent requests for an introspect which is not yet cached are collapsed, so that the template is parsed only once.
+ * Cached templates are never reloaded, so no fingerprint of the wrapped provider is reported.
  */
 public class CachedTemplateProvider implements TemplateProvider {
 
@@ -35,6 +43,13 @@ public class CachedTemplateProvider implements TemplateProvider {
     private final Cache<String, OPERATIONALTEMPLATE> templateCache;
     private final Cache<String, WebTemplate> introspectCache;
 
+    private final ConcurrentMap<String, CompletableFuture<Optional<WebTemplate>>> introspectLoads = new ConcurrentHashMap<>();
+
+    private final LongAdder introspectHitCount = new LongAdder();
+    private final LongAdder introspectMissCount = new LongAdder();
+    private final LongAdder introspectLoadCount = new LongAdder();
+    private final LongAdder introspectLoadTime = new LongAdder();
+
     /**
      * @param rootTemplateProvider The warped {@link TemplateProvider}
      * @param templateCache        The {@link Cache} which is used for caching the templates.
@@ -73,11 +88,95 @@ public class CachedTemplateProvider implements TemplateProvider {
 
     @Override
     public Optional<WebTemplate> buildIntrospect(String templateId) {
-        WebTemplate templateIntrospect = introspectCache.get(templateId);
-        if (templateIntrospect == null) {
-            templateIntrospect = find(templateId).map(t -> new OPTParser(t).parse()).orElse(null);
-        }
+        // callers may modify the introspect, so hand out a copy of the cached instance.
+        return buildFrozenIntrospect(templateId).map(WebTemplate::new);
+    }
 
+    /**
+     * @return the cached introspect itself. It is frozen and shared between all callers.
+     */
+    @Override
+    public Optional<WebTemplate> buildFrozenIntrospect(String templateId) {
+        WebTemplate templateIntrospect = introspectCache != null ? introspectCache.get(templateId) : null;
+        if (templateIntrospect != null) {
+            introspectHitCount.increment();
+        } else {
+            introspectMissCount.increment();
+            templateIntrospect = loadIntrospect(templateId).orElse(null);
+        }
         return Optional.ofNullable(templateIntrospect);
     }
+
+    /**
+     * Parse the introspect for {@code templateId} and put it into the cache. If a load for the same template is already
+     * running the current thread waits for its result instead of parsing the template again.
+     */
+    private Optional<WebTemplate> loadIntrospect(String templateId) {
+        CompletableFuture<Optional<WebTemplate>> load = new CompletableFuture<>();
+        CompletableFuture<Optional<WebTemplate>> runningLoad = introspectLoads.putIfAbsent(templateId, load);
+        if (runningLoad != null) {
+            return await(runningLoad);
+        }
+
+        try {
+            // a concurrent load might have finished between the cache lookup and the registration of this load
+            WebTemplate templateIntrospect = introspectCache != null ? introspectCache.get(templateId) : null;
+            if (templateIntrospect == null) {
+                long start = System.nanoTime();
+                templateIntrospect = find(templateId).map(t -> new OPTParser(t).parse().freeze()).orElse(null);
+                introspectLoadTime.add(System.nanoTime() - start);
+                introspectLoadCount.increment();
+                if (templateIntrospect != null && introspectCache != null) {
+                    introspectCache.put(templateId, templateIntrospect);
+                }
+            }
+            load.complete(Optional.ofNullable(templateIntrospect));
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            introspectLoads.remove(templateId, load);
+        }
+
+        return load.join();
+    }
+
+    private static Optional<WebTemplate> await(CompletableFuture<Optional<WebTemplate>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of {@link #buildIntrospect(String)} and {@link #buildFrozenIntrospect(String)} calls answered from the introspect cache.
+     */
+    public long getIntrospectHitCount() {
+        return introspectHitCount.sum();
+    }
+
+    /**
+     * @return Number of {@link #buildIntrospect(String)} and {@link #buildFrozenIntrospect(String)} calls not found in the introspect cache.
+     */
+    public long getIntrospectMissCount() {
+        return introspectMissCount.sum();
+    }
+
+    /**
+     * @return Number of times a template was actually parsed into an introspect.
+     */
+    public long getIntrospectLoadCount() {
+        return introspectLoadCount.sum();
+    }
+
+    /**
+     * @return Total time in nanoseconds spent parsing introspects.
+     */
+    public long getIntrospectLoadTime() {
+        return introspectLoadTime.sum();
+    }
 }
@@ -24,57 +24,225 @@ import org.apache.xmlbeans.XmlException;
 import org.ehrbase.util.exception.SdkException;
 import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
 
-import java.io.FileInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
 
 /**
  * Provides Template which are saved as OPT files in the file system.
+ * <p>
+ * Only the template id is read from the files when indexing the directory. Parsed templates are held in a LRU cache.
+ * If watching is enabled changes in the directory are picked up via a {@link WatchService}, which has to be released
+ * with {@link #close()}. Otherwise the directory is scanned again when an unknown template is requested.
  */
-public class FileBasedTemplateProvider implements TemplateProvider {
+public class FileBasedTemplateProvider implements TemplateProvider, Closeable {
 
     public static final PathMatcher OPT_FILE_MATCHER = FileSystems.getDefault().getPathMatcher("glob:**.opt");
+    public static final int DEFAULT_CACHE_SIZE = 32;
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
     private final Map<String, Path> pathMap = new HashMap<>();
+    private final Map<Path, String> templateIdMap = new HashMap<>();
+    private final Map<String, CompletableFuture<OPERATIONALTEMPLATE>> templateCache;
+    private final Map<WatchKey, Path> watchKeys = new HashMap<>();
 
     private final Path templateDirectory;
+    private WatchService watchService;
 
     /**
      * @param templateDirectory Path to folder with the OPT files. Every file with ending  <code>*.opt</code> will be parsed.
      */
     public FileBasedTemplateProvider(Path templateDirectory) {
+        this(templateDirectory, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param templateDirectory Path to folder with the OPT files. Every file with ending  <code>*.opt</code> will be parsed.
+     * @param cacheSize         Maximal number of parsed templates which are kept in memory.
+     */
+    public FileBasedTemplateProvider(Path templateDirectory, int cacheSize) {
+        this(templateDirectory, cacheSize, false);
+    }
+
+    /**
+     * @param templateDirectory Path to folder with the OPT files. Every file with ending  <code>*.opt</code> will be parsed.
+     * @param cacheSize         Maximal number of parsed templates which are kept in memory.
+     * @param watch             Watch the directory for changes instead of scanning it for unknown templates. The
+     *                          {@link WatchService} is released by {@link #close()}.
+     */
+    public FileBasedTemplateProvider(Path templateDirectory, int cacheSize, boolean watch) {
         this.templateDirectory = templateDirectory;
+        this.templateCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<OPERATIONALTEMPLATE>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        if (watch) {
+            try {
+                watchService = templateDirectory.getFileSystem().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                // fall back to scanning the directory if a template is not found
+                watchService = null;
+            }
+        }
 
         snyc(templateDirectory);
 
     }
 
-    private void snyc(Path templateDirectory) {
-        try (Stream<Path> walk = Files.walk(templateDirectory)) {
-            walk
-                    .filter(p -> p.toFile().isFile())
-                    .filter(OPT_FILE_MATCHER::matches)
-                    .filter(p -> !pathMap.containsValue(p))
-                    .forEach(p -> pathMap.put(extractTemplateId(p), p));
+    private void snyc(Path directory) {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.forEach(p -> {
+                if (Files.isDirectory(p)) {
+                    register(p);
+                } else if (OPT_FILE_MATCHER.matches(p) && !templateIdMap.containsKey(p)) {
+                    index(p);
+                }
+            });
 
         } catch (IOException e) {
             throw new SdkException(e.getMessage(), e);
         }
     }
 
-    private String extractTemplateId(Path path) {
-        return readTemplate(path).getTemplateId().getValue();
+    private void register(Path directory) {
+        if (watchService == null || watchKeys.containsValue(directory)) {
+            return;
+        }
+        try {
+            WatchKey key = directory.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watchKeys.put(key, directory);
+        } catch (IOException e) {
+            throw new SdkException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Apply the changes in the template directory reported since the last call.
+     */
+    private void processEvents() {
+        if (watchService == null) {
+            return;
+        }
+        WatchKey key;
+        try {
+            while ((key = watchService.poll()) != null) {
+                Path directory = watchKeys.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                        templateIdMap.keySet().removeIf(p -> !Files.isRegularFile(p));
+                        pathMap.values().removeIf(p -> !Files.isRegularFile(p));
+                        templateCache.clear();
+                        snyc(templateDirectory);
+                        continue;
+                    }
+                    Path path = directory.resolve((Path) event.context());
+                    remove(path);
+                    if (event.kind() != StandardWatchEventKinds.ENTRY_DELETE) {
+                        if (Files.isDirectory(path)) {
+                            snyc(path);
+                        } else if (OPT_FILE_MATCHER.matches(path) && Files.isRegularFile(path)) {
+                            indexChanged(path);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    watchKeys.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            watchService = null;
+        }
+    }
+
+    private void index(Path path) {
+        extractTemplateId(path).ifPresent(templateId -> {
+            Path old = pathMap.put(templateId, path);
+            if (old != null && !old.equals(path)) {
+                templateIdMap.remove(old);
+            }
+            templateIdMap.put(path, templateId);
+            templateCache.remove(templateId);
+        });
+    }
+
+    private void indexChanged(Path path) {
+        try {
+            index(path);
+        } catch (SdkException e) {
+            // the file might still be written, it will be reported again when it is modified
+        }
+    }
+
+    private void remove(Path path) {
+        String templateId = templateIdMap.remove(path);
+        if (templateId != null) {
+            pathMap.remove(templateId, path);
+            templateCache.remove(templateId);
+        }
+    }
+
+    /**
+     * Reads the template id from the header of the OPT without parsing the whole template.
+     */
+    private Optional<String> extractTemplateId(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                boolean inTemplateId = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == 2 && "template_id".equals(reader.getLocalName())) {
+                            inTemplateId = true;
+                        } else if (inTemplateId && depth == 3 && "value".equals(reader.getLocalName())) {
+                            return Optional.of(reader.getElementText());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        inTemplateId = inTemplateId && depth != 2;
+                        depth--;
+                    }
+                }
+                return Optional.empty();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new SdkException(e.getMessage(), e);
+        }
     }
 
     private OPERATIONALTEMPLATE readTemplate(Path path) {
-        try (InputStream in = new FileInputStream(path.toFile())) {
+        try (InputStream in = Files.newInputStream(path)) {
             org.openehr.schemas.v1.TemplateDocument document = org.openehr.schemas.v1.TemplateDocument.Factory.parse(in);
             return document.getTemplate();
         } catch (IOException | XmlException e) {
@@ -82,15 +250,98 @@ public class FileBasedTemplateProvider implements TemplateProvider {
         }
     }
 
+    /**
+     * The template is parsed outside of the lock of this provider, concurrent requests for the same template wait for
+     * the same parse.
+     */
     @Override
     public Optional<OPERATIONALTEMPLATE> find(String templateId) {
 
-        if (!pathMap.containsKey(templateId)) {
+        Path path;
+        CompletableFuture<OPERATIONALTEMPLATE> template;
+        boolean load = false;
+        synchronized (this) {
+            path = findPath(templateId);
+            if (path == null) {
+                return Optional.empty();
+            }
+            template = templateCache.get(templateId);
+            if (template == null) {
+                template = new CompletableFuture<>();
+                templateCache.put(templateId, template);
+                load = true;
+            }
+        }
+
+        if (load) {
+            try {
+                template.complete(readTemplate(path));
+            } catch (RuntimeException e) {
+                template.completeExceptionally(e);
+                synchronized (this) {
+                    templateCache.remove(templateId, template);
+                }
+                throw e;
+            }
+        }
+        return Optional.of(await(template));
+    }
+
+    private static OPERATIONALTEMPLATE await(CompletableFuture<OPERATIONALTEMPLATE> template) {
+        try {
+            return template.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The path of the OPT file of {@code templateId} or {@code null} if there is none.
+     */
+    private Path findPath(String templateId) {
+        processEvents();
+        if (watchService == null && !pathMap.containsKey(templateId)) {
+            // without watcher a newly added file is only found by scanning the directory
             snyc(templateDirectory);
         }
+        return pathMap.get(templateId);
+    }
+
+    /**
+     * @param templateId The id of the template.
+     * @return A value derived from size and modification time of the OPT file, which changes whenever the file is changed.
+     */
+    @Override
+    public synchronized Optional<String> findFingerprint(String templateId) {
+        return Optional.ofNullable(findPath(templateId)).map(this::fingerprint);
+    }
 
-        return Optional.ofNullable(pathMap.get(templateId)).map(this::readTemplate);
+    private String fingerprint(Path path) {
+        try {
+            return Files.size(path) + "-" + Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            throw new SdkException(e.getMessage(), e);
+        }
     }
 
+    /**
+     * Stops watching the template directory.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
 
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
 }
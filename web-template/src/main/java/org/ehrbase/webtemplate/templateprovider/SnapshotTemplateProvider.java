@@ -0,0 +1,131 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.webtemplate.templateprovider;
+
+import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.snapshot.WebTemplateSnapshot;
+import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Wraps a {@link TemplateProvider} and stores the introspects it builds as {@link WebTemplateSnapshot} in a directory.
+ * <p>
+ * Later calls of {@link #buildIntrospect(String)}, also from other processes, load the snapshot instead of parsing the
+ * OPT. A snapshot is stale if its fingerprint differs from the current fingerprint of the template, in which case the
+ * introspect is build by the wrapped {@link TemplateProvider} and the snapshot is rewritten.
+ */
+public class SnapshotTemplateProvider implements TemplateProvider {
+
+    static final String SNAPSHOT_FILE_ENDING = ".wts";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final TemplateProvider rootTemplateProvider;
+    private final Path snapshotDirectory;
+    private final Function<String, Optional<String>> fingerprintFunction;
+
+    /**
+     * @param rootTemplateProvider The wrapped {@link TemplateProvider}
+     * @param snapshotDirectory    The directory the snapshots are stored in.
+     * @param fingerprintFunction  Returns for a template id a value which changes whenever the template changes, e.g. a
+     *                             checksum of the OPT file. If it returns {@link Optional#empty()} no snapshot is used.
+     */
+    public SnapshotTemplateProvider(TemplateProvider rootTemplateProvider, Path snapshotDirectory, Function<String, Optional<String>> fingerprintFunction) {
+        this.rootTemplateProvider = rootTemplateProvider;
+        this.snapshotDirectory = snapshotDirectory;
+        this.fingerprintFunction = fingerprintFunction;
+    }
+
+    /**
+     * Uses the file size and modification time of the OPT files as fingerprint.
+     *
+     * @param rootTemplateProvider The wrapped {@link FileBasedTemplateProvider}
+     * @param snapshotDirectory    The directory the snapshots are stored in.
+     */
+    public SnapshotTemplateProvider(FileBasedTemplateProvider rootTemplateProvider, Path snapshotDirectory) {
+        this(rootTemplateProvider, snapshotDirectory, rootTemplateProvider::findFingerprint);
+    }
+
+    @Override
+    public Optional<OPERATIONALTEMPLATE> find(String templateId) {
+        return rootTemplateProvider.find(templateId);
+    }
+
+    @Override
+    public Optional<String> findFingerprint(String templateId) {
+        return fingerprintFunction.apply(templateId);
+    }
+
+    @Override
+    public Optional<WebTemplate> buildIntrospect(String templateId) {
+
+        Optional<String> fingerprint = fingerprintFunction.apply(templateId);
+        if (fingerprint.isEmpty()) {
+            return rootTemplateProvider.buildIntrospect(templateId);
+        }
+
+        Path snapshotPath = snapshotPath(templateId);
+        Optional<WebTemplate> fromSnapshot = readSnapshot(snapshotPath, fingerprint.get());
+        if (fromSnapshot.isPresent()) {
+            return fromSnapshot;
+        }
+
+        Optional<WebTemplate> webTemplate = rootTemplateProvider.buildIntrospect(templateId);
+        webTemplate.ifPresent(w -> writeSnapshot(w, fingerprint.get(), snapshotPath));
+        return webTemplate;
+    }
+
+    private void writeSnapshot(WebTemplate webTemplate, String fingerprint, Path snapshotPath) {
+        try {
+            WebTemplateSnapshot.write(webTemplate, fingerprint, snapshotPath);
+        } catch (RuntimeException e) {
+            // the introspect is valid without snapshot, the next call tries to write it again
+            logger.warn("Can not write snapshot {}: {}", snapshotPath, e.getMessage(), e);
+        }
+    }
+
+    private Optional<WebTemplate> readSnapshot(Path snapshotPath, String fingerprint) {
+        if (!Files.isRegularFile(snapshotPath)) {
+            return Optional.empty();
+        }
+        try {
+            WebTemplateSnapshot snapshot = WebTemplateSnapshot.open(snapshotPath);
+            if (snapshot.isSupportedFormat() && Objects.equals(snapshot.getFingerprint(), fingerprint)) {
+                return Optional.of(snapshot.readWebTemplate());
+            }
+        } catch (RuntimeException e) {
+            // a corrupt snapshot is treated as stale and rewritten
+        }
+        return Optional.empty();
+    }
+
+    Path snapshotPath(String templateId) {
+        return snapshotDirectory.resolve(URLEncoder.encode(templateId, StandardCharsets.UTF_8) + SNAPSHOT_FILE_ENDING);
+    }
+}
@@ -32,4 +32,21 @@ public interface TemplateProvider {
     default Optional<WebTemplate> buildIntrospect(String templateId) {
         return find(templateId).map(t -> new OPTParser(t).parse());
     }
+
+    /**
+     * Like {@link #buildIntrospect(String)} but the returned {@link WebTemplate} is frozen. Providers which cache
+     * introspects hand out the same instance on every call instead of a copy.
+     */
+    default Optional<WebTemplate> buildFrozenIntrospect(String templateId) {
+        return buildIntrospect(templateId).map(WebTemplate::freeze);
+    }
+
+    /**
+     * @param templateId The id of the template.
+     * @return A value which changes whenever the template changes, or {@link Optional#empty()} if the provider can not
+     * tell. Used to validate values derived from the template.
+     */
+    default Optional<String> findFingerprint(String templateId) {
+        return Optional.empty();
+    }
 }
@@ -37,6 +37,7 @@ import java.util.List;
 import java.util.Set;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -71,6 +72,33 @@ public class WebTemplateTest {
         .isTrue();
   }
 
+  @Test
+  public void testFindByAqlPathFrozen() throws IOException, XmlException {
+    OPERATIONALTEMPLATE template =
+        TemplateDocument.Factory.parse(OperationalTemplateTestData.CORONA_ANAMNESE.getStream())
+            .getTemplate();
+
+    WebTemplate webTemplate = new OPTParser(template).parse();
+    WebTemplate frozen = new WebTemplate(webTemplate).freeze();
+
+    String withName = "/content[openEHR-EHR-SECTION.adhoc.v1 and name/value='Symptome']";
+    String withoutName = "/content[openEHR-EHR-SECTION.adhoc.v1]";
+    Assertions.assertThat(frozen.findAllByAqlPath(withName, false))
+        .isEqualTo(webTemplate.findAllByAqlPath(withName, false))
+        .hasSize(1);
+    Assertions.assertThat(frozen.findAllByAqlPath(withoutName, true))
+        .isEqualTo(webTemplate.findAllByAqlPath(withoutName, true))
+        .isNotEmpty();
+    Assertions.assertThat(frozen.findByAqlPath(withName)).isEqualTo(webTemplate.findByAqlPath(withName));
+    Assertions.assertThat(frozen.findAllByAqlPath("/unknown", true)).isEmpty();
+
+    Assertions.assertThat(frozen.findAllByNodeId("openEHR-EHR-SECTION.adhoc.v1"))
+        .isEqualTo(webTemplate.findAllByNodeId("openEHR-EHR-SECTION.adhoc.v1"));
+    Assertions.assertThat(frozen.getTree().findChildById("context"))
+        .isEqualTo(webTemplate.getTree().findChildById("context"))
+        .isPresent();
+  }
+
   @Test
   public void testQueryUpperUnbounded() throws IOException, XmlException {
     OPERATIONALTEMPLATE operationaltemplate =
@@ -118,4 +146,50 @@ public class WebTemplateTest {
 
     Assertions.assertThat(actual).size().isEqualTo(5);
   }
+
+  @Test
+  public void freeze() throws IOException, XmlException {
+    OPERATIONALTEMPLATE operationaltemplate =
+        TemplateDocument.Factory.parse(
+                OperationalTemplateTestData.BLOOD_PRESSURE_SIMPLE.getStream())
+            .getTemplate();
+    WebTemplate webTemplate = new OPTParser(operationaltemplate).parse();
+    WebTemplate copy = new WebTemplate(webTemplate);
+
+    webTemplate.freeze();
+
+    assertThat(webTemplate.isFrozen()).isTrue();
+    assertThat(webTemplate).isEqualTo(copy);
+    assertThat(webTemplate.getTree().hashCode()).isEqualTo(copy.getTree().hashCode());
+    assertThat(webTemplate.getTree()).isNotEqualTo(webTemplate.getTree().getChildren().get(0));
+    WebTemplateNode child = webTemplate.getTree().getChildren().get(0);
+    assertThat(child.isFrozen()).isTrue();
+    assertThatThrownBy(() -> webTemplate.getTree().getChildren().add(new WebTemplateNode()))
+        .isInstanceOf(UnsupportedOperationException.class);
+    assertThatThrownBy(() -> child.setMax(2)).isInstanceOf(UnsupportedOperationException.class);
+
+    // copies are modifiable again
+    WebTemplate unfrozen = new WebTemplate(webTemplate);
+    assertThat(unfrozen.isFrozen()).isFalse();
+    assertThat(unfrozen.getTree().isFrozen()).isFalse();
+    unfrozen.getTree().getChildren().clear();
+  }
+
+  @Test
+  public void computeDerivedIfAbsent() throws IOException, XmlException {
+    OPERATIONALTEMPLATE operationaltemplate =
+        TemplateDocument.Factory.parse(
+                OperationalTemplateTestData.BLOOD_PRESSURE_SIMPLE.getStream())
+            .getTemplate();
+    WebTemplate webTemplate = new OPTParser(operationaltemplate).parse();
+
+    assertThatThrownBy(() -> webTemplate.computeDerivedIfAbsent("key", WebTemplate::getTemplateId))
+        .isInstanceOf(UnsupportedOperationException.class);
+
+    WebTemplate frozen = new WebTemplate(webTemplate).freeze();
+    Object first = frozen.computeDerivedIfAbsent("key", w -> new Object());
+    assertThat(frozen.<Object>computeDerivedIfAbsent("key", w -> new Object())).isSameAs(first);
+    assertThat(frozen.<Object>computeDerivedIfAbsent("other", w -> new Object()))
+        .isNotSameAs(first);
+  }
 }
@@ -0,0 +1,195 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.webtemplate.parser;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlTokenSource;
+import org.assertj.core.api.SoftAssertions;
+import org.ehrbase.terminology.client.terminology.TermDefinition;
+import org.ehrbase.test_data.operationaltemplate.OperationalTemplateTestData;
+import org.junit.Test;
+import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
+import org.openehr.schemas.v1.TemplateDocument;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Checks {@link OptIndex} against the former extraction via the XMLBeans object model for every OPT in the test data.
+ */
+public class OptIndexTest {
+
+  @Test
+  public void conformance() throws IOException, XmlException {
+    SoftAssertions softly = new SoftAssertions();
+
+    for (OperationalTemplateTestData testData : OperationalTemplateTestData.values()) {
+      OPERATIONALTEMPLATE template =
+          TemplateDocument.Factory.parse(testData.getStream()).getTemplate();
+
+      OptIndex fromTemplate = OptIndex.of(template);
+
+      Map<String, String> expectedDefaults = new HashMap<>();
+      Arrays.stream(extractChildren(template, "constraints"))
+          .map(c -> extractChildren(c, "attributes"))
+          .flatMap(Arrays::stream)
+          .forEach(a -> extractDefault(a, expectedDefaults));
+
+      softly
+          .assertThat(fromTemplate.getDefaultValues())
+          .as(testData.name())
+          .isEqualTo(expectedDefaults);
+
+      for (String archetypeId : findArchetypeIds(template)) {
+        Map<String, Map<String, TermDefinition>> expectedTerms =
+            buildOtherTerms(template, archetypeId);
+        softly
+            .assertThat(fromTemplate.getTermDefinitions(archetypeId))
+            .as("%s %s", testData.name(), archetypeId)
+            .isEqualTo(expectedTerms);
+      }
+    }
+
+    softly.assertAll();
+  }
+
+  private static Set<String> findArchetypeIds(OPERATIONALTEMPLATE template) {
+    Set<String> archetypeIds = new HashSet<>();
+    for (String element : List.of("ontology", "component_ontologies")) {
+      Arrays.stream(extractChildren(template, element))
+          .map(x -> x.selectAttribute("", "archetype_id").newCursor().getTextValue())
+          .forEach(archetypeIds::add);
+    }
+    return archetypeIds;
+  }
+
+  private static XmlObject[] extractChildren(XmlObject c, String attributes) {
+    return c.selectChildren(OptIndex.OPENEHR_NAMESPACE, attributes);
+  }
+
+  private static void extractDefault(XmlObject xmlObject, Map<String, String> defaults) {
+
+    String differentialPath =
+        StringUtils.substringAfter(
+            extractChildren(xmlObject, "differential_path")[0].newCursor().getTextValue(), "/");
+    String rmAttributeName =
+        extractChildren(xmlObject, "rm_attribute_name")[0].newCursor().getTextValue();
+    String aql = "/" + differentialPath + "/" + rmAttributeName;
+    List<String> attributeNames =
+        Arrays.stream(extractChildren(xmlObject, "children"))
+            .map(x -> extractChildren(x, "default_value"))
+            .flatMap(Arrays::stream)
+            .map(XmlTokenSource::newDomNode)
+            .map(Node::getFirstChild)
+            .map(Node::getChildNodes)
+            .map(OptIndexTest::buildList)
+            .flatMap(List::stream)
+            .map(Node::getNodeName)
+            .collect(Collectors.toList());
+
+    attributeNames.forEach(
+        n -> {
+          Optional<XmlObject> any =
+              Arrays.stream(extractChildren(xmlObject, "children"))
+                  .map(x -> extractChildren(x, "default_value"))
+                  .flatMap(Arrays::stream)
+                  .map(x -> extractChildren(x, n))
+                  .flatMap(Arrays::stream)
+                  .findAny();
+          if (any.isPresent()) {
+            if (any.get().newDomNode().getFirstChild().getChildNodes().getLength() == 1) {
+              defaults.put(aql + "|" + n, any.get().newCursor().getTextValue());
+            } else {
+              String defaultValue =
+                  Arrays.stream(extractChildren(any.get(), "defining_code"))
+                      .findAny()
+                      .map(x -> extractChildren(x, "code_string"))
+                      .stream()
+                      .flatMap(Arrays::stream)
+                      .map(XmlTokenSource::newCursor)
+                      .map(XmlCursor::getTextValue)
+                      .findAny()
+                      .orElse("");
+              defaults.put(aql + "|" + "defining_code", defaultValue);
+            }
+          }
+        });
+  }
+
+  private static List<Node> buildList(NodeList list) {
+    List<Node> nodes = new ArrayList<>();
+    for (int i = 0; i < list.getLength(); i++) {
+      Node item = list.item(i);
+      if (item.getNodeType() == Node.ELEMENT_NODE) {
+        nodes.add(item);
+      }
+    }
+    return nodes;
+  }
+
+  private static Map<String, Map<String, TermDefinition>> buildOtherTerms(
+      OPERATIONALTEMPLATE template, String archetypeId) {
+    Map<String, Map<String, TermDefinition>> otherTermDefinitionMap = new HashMap<>();
+    List<XmlObject> ontologies = new ArrayList<>();
+    for (String element : List.of("ontology", "component_ontologies")) {
+      ontologies.addAll(
+          Arrays.stream(extractChildren(template, element))
+              .filter(
+                  x ->
+                      x.selectAttribute("", "archetype_id")
+                          .newCursor()
+                          .getTextValue()
+                          .equals(archetypeId))
+              .map(x -> extractChildren(x, "term_definitions"))
+              .flatMap(Arrays::stream)
+              .collect(Collectors.toList()));
+    }
+
+    for (XmlObject term : ontologies) {
+      String language = term.selectAttribute("", "language").newCursor().getTextValue();
+
+      for (XmlObject items : extractChildren(term, "items")) {
+        String code = items.selectAttribute("", "code").newCursor().getTextValue();
+        String text = "";
+        String description = "";
+        for (XmlObject item : extractChildren(items, "items")) {
+          String id = item.selectAttribute("", "id").newCursor().getTextValue();
+          String value = item.newCursor().getTextValue();
+          if (Objects.equals(id, "text")) {
+            text = value;
+          } else if (Objects.equals(id, "description")) {
+            description = value;
+          }
+        }
+        otherTermDefinitionMap
+            .computeIfAbsent(code, c -> new HashMap<>())
+            .put(language, new TermDefinition(code, text, description));
+      }
+    }
+
+    return otherTermDefinitionMap;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.webtemplate.path.flat;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FlatPathIndexTest {
+
+    @Test
+    public void findStartsWith() {
+        Map<FlatPathDto, String> map = Stream.of(
+                "encounter/body_temperature:1/any_event:0/temperature|magnitude",
+                "encounter/body_temperature:1/any_event/temperature|unit",
+                "encounter/body_temperature:0/any_event:0/temperature|magnitude",
+                "encounter/body_temperature/any_event:1/temperature|magnitude",
+                "encounter/body_temperature:1/any_event:0/width",
+                "vitals/vitals/haemoglobin_a1c/_link:1|type",
+                "vitals/vitals/haemoglobin_a1c/_link:1|id",
+                "encounter/context/start_time",
+                "encounter/composer|name")
+                .collect(Collectors.toMap(FlatPathDto::new, Function.identity()));
+
+        FlatPathIndex<String> cut = new FlatPathIndex<>(map);
+
+        List.of(
+                "encounter",
+                "encounter/body_temperature",
+                "encounter/body_temperature:1",
+                "encounter/body_temperature:0",
+                "encounter/body_temperature:0/any_event",
+                "encounter/body_temperature:1/any_event:0/temperature",
+                "encounter/body_temperature:1/any_event:0/temperature|magnitude",
+                "encounter/body_temperature:1/any_event:1",
+                "vitals/vitals/haemoglobin_a1c/_link",
+                "vitals/vitals/haemoglobin_a1c/_link:0",
+                "encounter/composer|name",
+                "encounter/composer|id",
+                "other")
+                .forEach(path -> assertThat(cut.findStartsWith(path))
+                        .as(path)
+                        .extracting(Map.Entry::getValue)
+                        .containsExactlyInAnyOrderElementsOf(map.keySet().stream()
+                                .filter(k -> k.startsWith(path))
+                                .map(map::get)
+                                .collect(Collectors.toList())));
+    }
+}
@@ -19,6 +19,8 @@
 
 package org.ehrbase.webtemplate.templateprovider;
 
+import org.ehrbase.test_data.operationaltemplate.OperationalTemplateTestData;
+import org.ehrbase.webtemplate.model.WebTemplate;
 import org.junit.Test;
 import org.openehr.schemas.v1.OPERATIONALTEMPLATE;
 
@@ -27,7 +29,16 @@ import javax.cache.CacheManager;
 import javax.cache.Caching;
 import javax.cache.configuration.MutableConfiguration;
 import javax.cache.spi.CachingProvider;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertTrue;
 
 public class CachedTemplateProviderTest {
@@ -48,4 +59,70 @@ public class CachedTemplateProviderTest {
         // read from Cache
         assertTrue(cut.find("ehrbase_blood_pressure_simple.de.v0").isPresent());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void buildIntrospect() throws Exception {
+
+        CachingProvider provider = Caching.getCachingProvider();
+        CacheManager cacheManager = provider.getCacheManager();
+        Cache<String, OPERATIONALTEMPLATE> templateCache = cacheManager.createCache("templateCache",
+                new MutableConfiguration<String, OPERATIONALTEMPLATE>()
+                        .setTypes(String.class, OPERATIONALTEMPLATE.class)
+                        .setStoreByValue(false));
+        Cache<String, WebTemplate> introspectCache = cacheManager.createCache("introspectCache",
+                new MutableConfiguration<String, WebTemplate>()
+                        .setTypes(String.class, WebTemplate.class)
+                        .setStoreByValue(false));
+
+        CachedTemplateProvider cut = new CachedTemplateProvider(new TestDataTemplateProvider(), templateCache, introspectCache);
+        String templateId = OperationalTemplateTestData.CORONA_ANAMNESE.getTemplateId();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Optional<WebTemplate>>> calls = IntStream.range(0, 8)
+                    .mapToObj(i -> (Callable<Optional<WebTemplate>>) () -> cut.buildIntrospect(templateId))
+                    .collect(Collectors.toList());
+            for (Future<Optional<WebTemplate>> future : executorService.invokeAll(calls)) {
+                assertThat(future.get()).isPresent();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertThat(cut.getIntrospectLoadCount()).isEqualTo(1);
+        assertThat(introspectCache.containsKey(templateId)).isTrue();
+
+        // read from Cache
+        assertThat(cut.buildIntrospect(templateId)).isPresent();
+        assertThat(cut.getIntrospectLoadCount()).isEqualTo(1);
+        assertThat(cut.getIntrospectHitCount() + cut.getIntrospectMissCount()).isEqualTo(9);
+        assertThat(cut.getIntrospectHitCount()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void buildFrozenIntrospect() {
+
+        CachingProvider provider = Caching.getCachingProvider();
+        CacheManager cacheManager = provider.getCacheManager();
+        Cache<String, OPERATIONALTEMPLATE> templateCache = cacheManager.createCache("frozenTemplateCache",
+                new MutableConfiguration<String, OPERATIONALTEMPLATE>()
+                        .setTypes(String.class, OPERATIONALTEMPLATE.class)
+                        .setStoreByValue(false));
+        Cache<String, WebTemplate> introspectCache = cacheManager.createCache("frozenIntrospectCache",
+                new MutableConfiguration<String, WebTemplate>()
+                        .setTypes(String.class, WebTemplate.class)
+                        .setStoreByValue(false));
+
+        CachedTemplateProvider cut = new CachedTemplateProvider(new TestDataTemplateProvider(), templateCache, introspectCache);
+        String templateId = OperationalTemplateTestData.CORONA_ANAMNESE.getTemplateId();
+
+        WebTemplate frozen = cut.buildFrozenIntrospect(templateId).orElseThrow(IllegalStateException::new);
+        assertThat(frozen.isFrozen()).isTrue();
+        assertThat(cut.buildFrozenIntrospect(templateId)).containsSame(frozen);
+
+        WebTemplate copy = cut.buildIntrospect(templateId).orElseThrow(IllegalStateException::new);
+        assertThat(copy).isNotSameAs(frozen);
+        assertThat(copy.isFrozen()).isFalse();
+        assertThat(cut.getIntrospectLoadCount()).isEqualTo(1);
+    }
+}
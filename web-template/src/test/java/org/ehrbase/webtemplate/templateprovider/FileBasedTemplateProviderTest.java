@@ -33,7 +33,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
-
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -69,4 +77,82 @@ public class FileBasedTemplateProviderTest {
         assertTrue(cut.find("test_all_types.en.v1").isPresent());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void findCached() throws IOException {
+
+        File templateFolder = folder.newFolder("template");
+
+        writeTemplateFile(templateFolder, "ehrbase_blood_pressure_simple.de.v0");
+        writeTemplateFile(templateFolder, "test_all_types.en.v1");
+
+        try (FileBasedTemplateProvider cut = new FileBasedTemplateProvider(templateFolder.toPath(), 1)) {
+
+            OPERATIONALTEMPLATE bloodPressure = cut.find("ehrbase_blood_pressure_simple.de.v0").orElseThrow();
+            assertThat(bloodPressure.getTemplateId().getValue()).isEqualTo("ehrbase_blood_pressure_simple.de.v0");
+            // read from cache
+            assertThat(cut.find("ehrbase_blood_pressure_simple.de.v0").orElseThrow()).isSameAs(bloodPressure);
+
+            // evicts ehrbase_blood_pressure_simple.de.v0
+            assertThat(cut.find("test_all_types.en.v1").orElseThrow().getTemplateId().getValue()).isEqualTo("test_all_types.en.v1");
+            assertThat(cut.find("ehrbase_blood_pressure_simple.de.v0").orElseThrow()).isNotSameAs(bloodPressure);
+        }
+    }
+
+    @Test
+    public void findConcurrent() throws Exception {
+
+        File templateFolder = folder.newFolder("template");
+        writeTemplateFile(templateFolder, "test_all_types.en.v1");
+
+        FileBasedTemplateProvider cut = new FileBasedTemplateProvider(templateFolder.toPath());
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Optional<OPERATIONALTEMPLATE>>> calls = IntStream.range(0, 8)
+                    .mapToObj(i -> (Callable<Optional<OPERATIONALTEMPLATE>>) () -> cut.find("test_all_types.en.v1"))
+                    .collect(Collectors.toList());
+            List<OPERATIONALTEMPLATE> templates = executorService.invokeAll(calls).stream()
+                    .map(f -> {
+                        try {
+                            return f.get().orElseThrow();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+
+            // parsed once
+            assertThat(templates).allMatch(t -> t == templates.get(0));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void findWatched() throws Exception {
+
+        File templateFolder = folder.newFolder("template");
+        writeTemplateFile(templateFolder, "ehrbase_blood_pressure_simple.de.v0");
+
+        try (FileBasedTemplateProvider cut = new FileBasedTemplateProvider(templateFolder.toPath(), FileBasedTemplateProvider.DEFAULT_CACHE_SIZE, true)) {
+
+            assertTrue(cut.find("ehrbase_blood_pressure_simple.de.v0").isPresent());
+
+            writeTemplateFile(templateFolder, "test_all_types.en.v1");
+            // the new file is picked up once the watcher reports it
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (!cut.find("test_all_types.en.v1").isPresent() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertTrue(cut.find("test_all_types.en.v1").isPresent());
+
+            Files.delete(templateFolder.toPath().resolve("test_all_types.en.v1.opt"));
+            deadline = System.currentTimeMillis() + 30_000;
+            while (cut.find("test_all_types.en.v1").isPresent() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertFalse(cut.find("test_all_types.en.v1").isPresent());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ *  *  Copyright (c) 2020  Stefan Spiska (Vitasystems GmbH) and Hannover Medical School
+ *  *  This file is part of Project EHRbase
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *  http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package org.ehrbase.webtemplate.templateprovider;
+
+import org.ehrbase.test_data.operationaltemplate.OperationalTemplateTestData;
+import org.ehrbase.webtemplate.model.WebTemplate;
+import org.ehrbase.webtemplate.snapshot.WebTemplateSnapshot;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SnapshotTemplateProviderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void buildIntrospect() throws Exception {
+
+        Path snapshotDirectory = temporaryFolder.newFolder().toPath();
+        AtomicReference<String> fingerprint = new AtomicReference<>("1");
+        SnapshotTemplateProvider cut = new SnapshotTemplateProvider(new TestDataTemplateProvider(), snapshotDirectory, t -> Optional.of(fingerprint.get()));
+        String templateId = OperationalTemplateTestData.CORONA_ANAMNESE.getTemplateId();
+
+        WebTemplate parsed = cut.buildIntrospect(templateId).orElseThrow();
+        Path snapshotPath = cut.snapshotPath(templateId);
+        assertThat(snapshotPath).exists();
+
+        // read from snapshot
+        WebTemplate fromSnapshot = cut.buildIntrospect(templateId).orElseThrow();
+        assertThat(fromSnapshot).isNotSameAs(parsed);
+        assertThat(fromSnapshot.getTree()).isEqualTo(parsed.getTree());
+        assertThat(fromSnapshot.getTemplateId()).isEqualTo(parsed.getTemplateId());
+        assertThat(fromSnapshot.getLanguages()).isEqualTo(parsed.getLanguages());
+
+        // stale snapshot is rewritten
+        fingerprint.set("2");
+        cut.buildIntrospect(templateId);
+        assertThat(WebTemplateSnapshot.open(snapshotPath).getFingerprint()).isEqualTo("2");
+
+        // corrupt snapshot falls back to parsing
+        Files.write(snapshotPath, new byte[]{1, 2, 3});
+        assertThat(cut.buildIntrospect(templateId).orElseThrow().getTree()).isEqualTo(parsed.getTree());
+        assertThat(WebTemplateSnapshot.open(snapshotPath).isSupportedFormat()).isTrue();
+    }
+
+    @Test
+    public void buildIntrospectAllTemplates() throws Exception {
+
+        Path snapshotDirectory = temporaryFolder.newFolder().toPath();
+        TestDataTemplateProvider rootTemplateProvider = new TestDataTemplateProvider();
+        SnapshotTemplateProvider cut = new SnapshotTemplateProvider(rootTemplateProvider, snapshotDirectory, t -> Optional.of("1"));
+
+        for (String templateId : rootTemplateProvider.listTemplateIds()) {
+            WebTemplate parsed = cut.buildIntrospect(templateId).orElseThrow();
+            assertThat(cut.snapshotPath(templateId)).exists();
+
+            WebTemplate fromSnapshot = cut.buildIntrospect(templateId).orElseThrow();
+            assertThat(fromSnapshot).as(templateId).isNotSameAs(parsed).isEqualTo(parsed);
+        }
+    }
+
+    @Test
+    public void buildIntrospectSnapshotNotWritable() throws Exception {
+
+        // a file where the snapshot directory should be, so the snapshot can not be written
+        Path snapshotDirectory = temporaryFolder.newFile().toPath();
+        SnapshotTemplateProvider cut = new SnapshotTemplateProvider(new TestDataTemplateProvider(), snapshotDirectory, t -> Optional.of("1"));
+        String templateId = OperationalTemplateTestData.CORONA_ANAMNESE.getTemplateId();
+
+        assertThat(cut.buildIntrospect(templateId)).isPresent();
+        assertThat(cut.snapshotPath(templateId)).doesNotExist();
+    }
+}